@@ -0,0 +1,295 @@
+package com.dancedeets.android;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.crashlytics.android.Crashlytics;
+import com.facebook.AccessToken;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A durable outbox for our authenticated POSTs to the "auth" and "user" endpoints.
+ *
+ * Updates for the same endpoint are merged into one pending payload (later values win),
+ * so the burst of updates at login (device token, location, ...) goes out as one POST per endpoint.
+ * Pending payloads are saved to SharedPreferences, so they survive process death,
+ * and failed sends are retried with exponential backoff, or as soon as we're back online.
+ *
+ * The access token is never saved with them: we add the current one from the Facebook SDK as we send,
+ * and drop anything pending for a user who has since logged out.
+ */
+public class ApiUpdateQueue {
+
+    private static final String LOG_TAG = "ApiUpdateQueue";
+
+    private static final String PREFS_NAME = "api_updates";
+    // Appended to the endpoint, for the key saving which user its pending update belongs to.
+    private static final String USER_ID_KEY_SUFFIX = ".user_id";
+    private static final String ACCESS_TOKEN_FIELD = "access_token";
+
+    // Sent in this order, since "user" updates only make sense once "auth" has registered the user.
+    private static final String[] ENDPOINTS = {"auth", "user"};
+
+    // Long enough to catch the updates that trickle in at login, from LoginActivity and RegistrationIntentService.
+    private static final long COALESCE_DELAY_MS = 2000;
+    private static final long MIN_BACKOFF_MS = 30 * 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 60 * 1000;
+
+    private static ApiUpdateQueue instance;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this, since updates can come from background threads (ie, RegistrationIntentService).
+    private final Map<String, JSONObject> mPending = new HashMap<>();
+    // The Facebook user id each pending update was made for, or null if we don't know (ie, saved by an older version).
+    private final Map<String, String> mUserIds = new HashMap<>();
+    // Bumped on every update to an endpoint, so we can tell if it changed while a send was in flight.
+    private final Map<String, Integer> mVersions = new HashMap<>();
+    private int mPostCount;
+    private int mUpdateCount;
+
+    // Only touched from the UI thread
+    private boolean mSending;
+    private long mBackoffMs = MIN_BACKOFF_MS;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private ApiUpdateQueue(Context context) {
+        mContext = context;
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (String endpoint : ENDPOINTS) {
+            String saved = mPreferences.getString(endpoint, null);
+            if (saved == null) {
+                continue;
+            }
+            try {
+                JSONObject pending = new JSONObject(saved);
+                // Older versions saved the access token along with everything else.
+                if (pending.remove(ACCESS_TOKEN_FIELD) != null) {
+                    mPreferences.edit().putString(endpoint, pending.toString()).apply();
+                }
+                mPending.put(endpoint, pending);
+                mUserIds.put(endpoint, mPreferences.getString(endpoint + USER_ID_KEY_SUFFIX, null));
+                mVersions.put(endpoint, 0);
+            } catch (JSONException e) {
+                Crashlytics.log(Log.ERROR, LOG_TAG, "Dropping unreadable saved update for " + endpoint + ": " + e);
+                mPreferences.edit().remove(endpoint).remove(endpoint + USER_ID_KEY_SUFFIX).apply();
+            }
+        }
+    }
+
+    public static ApiUpdateQueue getInstance() {
+        return instance;
+    }
+
+    public static ApiUpdateQueue createInstance(Context context) {
+        if (instance == null) {
+            instance = new ApiUpdateQueue(context);
+            instance.registerConnectivityReceiver();
+            // Send anything left over from before the process died.
+            instance.scheduleFlush(0);
+        }
+        return instance;
+    }
+
+    private void registerConnectivityReceiver() {
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isOnline() && hasPending()) {
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Back online, sending pending updates");
+                    mBackoffMs = MIN_BACKOFF_MS;
+                    scheduleFlush(0);
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    private boolean isOnline() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private synchronized boolean hasPending() {
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * Merges payload's fields into the pending update for endpoint, and schedules it to be sent.
+     * Safe to call from any thread.
+     *
+     * @param userId the Facebook user the update is for; it's sent with whatever token that user has at the time.
+     * @param payload the fields to send, which must not include the access token
+     */
+    public void enqueue(String endpoint, String userId, JSONObject payload) {
+        synchronized (this) {
+            JSONObject pending = mPending.get(endpoint);
+            if (pending != null && !userId.equals(mUserIds.get(endpoint))) {
+                // Whatever's pending belonged to someone else (or to a user we can't vouch for), so start afresh.
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new JSONObject();
+                mPending.put(endpoint, pending);
+            }
+            try {
+                Iterator<String> keys = payload.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    if (!key.equals(ACCESS_TOKEN_FIELD)) {
+                        pending.put(key, payload.get(key));
+                    }
+                }
+            } catch (JSONException e) {
+                // Our keys come straight from payload, so this can't happen.
+                throw new IllegalStateException(e);
+            }
+            Integer version = mVersions.get(endpoint);
+            mVersions.put(endpoint, version == null ? 1 : version + 1);
+            mUserIds.put(endpoint, userId);
+            mUpdateCount++;
+            mPreferences.edit()
+                    .putString(endpoint, pending.toString())
+                    .putString(endpoint + USER_ID_KEY_SUFFIX, userId)
+                    .apply();
+            Crashlytics.log(Log.INFO, LOG_TAG, "Queued update for " + endpoint + ": " + pending.length() + " fields pending");
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // If we're backing off from a failure, this update waits along with the rest.
+                if (mBackoffMs == MIN_BACKOFF_MS) {
+                    scheduleFlush(COALESCE_DELAY_MS);
+                }
+            }
+        });
+    }
+
+    private void scheduleFlush(long delayMs) {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mMainHandler.postDelayed(mFlushRunnable, delayMs);
+    }
+
+    /**
+     * Sends the first pending endpoint's update, and carries on with the rest once it succeeds.
+     */
+    private void flush() {
+        if (mSending || !hasPending()) {
+            return;
+        }
+        if (!isOnline()) {
+            // The connectivity receiver will kick us off again.
+            Crashlytics.log(Log.INFO, LOG_TAG, "Offline, holding pending updates");
+            return;
+        }
+        AccessToken accessToken = AccessToken.getCurrentAccessToken();
+        final String endpoint;
+        final JSONObject payload;
+        final int version;
+        synchronized (this) {
+            String nextEndpoint = null;
+            for (String candidate : ENDPOINTS) {
+                if (!mPending.containsKey(candidate)) {
+                    continue;
+                }
+                String userId = mUserIds.get(candidate);
+                if (accessToken == null || (userId != null && !userId.equals(accessToken.getUserId()))) {
+                    // Sending it with someone else's token would apply it to the wrong user.
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Dropping update for /api/" + candidate + " from a user who has logged out");
+                    removePending(candidate);
+                    continue;
+                }
+                nextEndpoint = candidate;
+                break;
+            }
+            if (nextEndpoint == null) {
+                return;
+            }
+            endpoint = nextEndpoint;
+            try {
+                // A copy, since later updates keep merging into the pending one.
+                payload = new JSONObject(mPending.get(endpoint).toString());
+                payload.put(ACCESS_TOKEN_FIELD, accessToken.getToken());
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            version = mVersions.get(endpoint);
+            mPostCount++;
+        }
+        mSending = true;
+        DanceDeetsApi.postApiRequest(endpoint, payload,
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        Crashlytics.log(Log.INFO, LOG_TAG, "Successfully called /api/" + endpoint + ": " + response);
+                        mSending = false;
+                        mBackoffMs = MIN_BACKOFF_MS;
+                        removeIfUnchanged(endpoint, version);
+                        scheduleFlush(0);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        mSending = false;
+                        int statusCode = error.networkResponse != null ? error.networkResponse.statusCode : 0;
+                        if (statusCode >= 400 && statusCode < 500) {
+                            // The server won't like this payload any better next time.
+                            Crashlytics.log(Log.ERROR, LOG_TAG, "Dropping rejected update for /api/" + endpoint + ": " + error);
+                            removeIfUnchanged(endpoint, version);
+                            scheduleFlush(0);
+                            return;
+                        }
+                        Crashlytics.log(Log.ERROR, LOG_TAG, "Error calling /api/" + endpoint + ", retrying in " + mBackoffMs / 1000 + "s: " + error);
+                        scheduleFlush(mBackoffMs);
+                        mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+                    }
+                });
+    }
+
+    private synchronized void removeIfUnchanged(String endpoint, int version) {
+        // If more fields arrived while we were sending, leave it pending, and send it all again.
+        Integer currentVersion = mVersions.get(endpoint);
+        if (currentVersion != null && currentVersion == version) {
+            removePending(endpoint);
+        }
+    }
+
+    private synchronized void removePending(String endpoint) {
+        mPending.remove(endpoint);
+        mUserIds.remove(endpoint);
+        mVersions.remove(endpoint);
+        mPreferences.edit().remove(endpoint).remove(endpoint + USER_ID_KEY_SUFFIX).apply();
+    }
+
+    /**
+     * The number of updates queued, and the number of POSTs it took to send them.
+     */
+    public synchronized String getStats() {
+        return mUpdateCount + " updates sent in " + mPostCount + " requests, " + mPending.size() + " endpoints pending";
+    }
+}
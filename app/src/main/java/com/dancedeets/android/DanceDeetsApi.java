@@ -3,19 +3,25 @@ package com.dancedeets.android;
 import android.net.Uri;
 import android.util.Log;
 
+import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.cache.EventRepository;
+import com.dancedeets.android.cache.SearchCache;
 import com.dancedeets.android.eventlist.SearchOptions;
 import com.dancedeets.android.models.FullEvent;
 import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.SearchResults;
+import com.dancedeets.android.util.EventRequest;
+import com.dancedeets.android.util.RequestClass;
+import com.dancedeets.android.util.SearchRequest;
 import com.dancedeets.android.util.VolleySingleton;
 import com.facebook.AccessToken;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -23,8 +29,11 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Wrapper for all API calls to the DanceDeets server.
@@ -51,35 +60,43 @@ public class DanceDeetsApi {
         void setupPayload(JSONObject payload) throws JSONException;
     }
 
+    /**
+     * Queues the update in the ApiUpdateQueue, which merges it with any other pending updates for the endpoint,
+     * and keeps it until the server has it.
+     * Only accessToken's user id is queued; the queue adds the user's current token when it sends.
+     */
     protected static void sendAuthenticatedApiRequest(String endpoint, AccessToken accessToken, PayloadModifier modifier) {
-        Log.i(LOG_TAG, "Sending auth'ed API request to " + endpoint);
-        Uri.Builder builder = generateApiBuilderFor(endpoint);
+        Log.i(LOG_TAG, "Queueing auth'ed API request to " + endpoint);
         JSONObject jsonPayload = new JSONObject();
         try {
-            jsonPayload.put("access_token", accessToken.getToken());
             modifier.setupPayload(jsonPayload);
         } catch (JSONException e) {
             Crashlytics.log(Log.ERROR, LOG_TAG, "Error constructing request: " + e);
             Crashlytics.logException(e);
             return;
         }
-        final String path = "/api/" + endpoint;
+        ApiUpdateQueue.getInstance().enqueue(endpoint, accessToken.getUserId(), jsonPayload);
+    }
+
+    /**
+     * Sends a POST to the endpoint straight away. Only for ApiUpdateQueue, everyone else should queue their updates.
+     */
+    static void postApiRequest(String endpoint, JSONObject jsonPayload, Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        Uri.Builder builder = generateApiBuilderFor(endpoint);
         JsonObjectRequest request = new JsonObjectRequest(
                 Request.Method.POST,
                 builder.toString(),
                 jsonPayload,
-                new com.android.volley.Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        Crashlytics.log(Log.INFO, LOG_TAG, "Successfully called " + path + ": " + response);
-                    }
-                },
-                new com.android.volley.Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        Crashlytics.log(Log.ERROR, LOG_TAG, "Error calling " + path + ": " + error);
-                    }
-                });
+                listener,
+                errorListener) {
+            @Override
+            public Priority getPriority() {
+                // Nobody is waiting on these, so they shouldn't hold up anything else.
+                return RequestClass.BACKGROUND.priority;
+            }
+        };
+        // ApiUpdateQueue does its own retries, with a much longer backoff.
+        request.setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
         VolleySingleton.getInstance().getRequestQueue().add(request);
     }
 
@@ -117,165 +134,488 @@ public class DanceDeetsApi {
         void onError(Exception exception);
     }
 
-    public static void getEvent(String id, final OnEventReceivedListener onEventReceivedListener) {
+    // Listeners waiting on each in-flight /events/{id} request, so concurrent calls can share one request.
+    // getEvent can be called from background threads (ie, ListenerService), so guard with synchronized.
+    private static final Map<String, List<OnEventReceivedListener>> sPendingEventListeners = new HashMap<>();
+
+    private static int sEventRequestCount;
+    private static int sEventCoalescedCount;
+
+    /**
+     * The number of getEvent calls that started a network request.
+     */
+    public static int getEventRequestCount() {
+        synchronized (sPendingEventListeners) {
+            return sEventRequestCount;
+        }
+    }
+
+    /**
+     * The number of getEvent calls that piggy-backed on an existing in-flight request.
+     */
+    public static int getEventCoalescedCount() {
+        synchronized (sPendingEventListeners) {
+            return sEventCoalescedCount;
+        }
+    }
+
+    private static List<OnEventReceivedListener> removePendingEventListeners(String id) {
+        synchronized (sPendingEventListeners) {
+            return sPendingEventListeners.remove(id);
+        }
+    }
+
+    /**
+     * Returns the event from the EventRepository if we've seen it recently, and otherwise fetches it from the server.
+     * If our copy has expired, we ask the server whether it's still current, rather than downloading it again.
+     */
+    public static void getEvent(final String id, final OnEventReceivedListener onEventReceivedListener) {
+        EventRepository repository = EventRepository.getInstance();
+        if (repository == null) {
+            fetchEvent(id, onEventReceivedListener, null);
+            return;
+        }
+        repository.getEntry(id, new EventRepository.OnEntryLoadedListener() {
+            @Override
+            public void onEntryLoaded(EventRepository.Entry entry) {
+                if (entry == null || entry.isExpired()) {
+                    fetchEvent(id, onEventReceivedListener, entry);
+                } else if (onEventReceivedListener != null) {
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Loaded event " + id + " from repository");
+                    onEventReceivedListener.onEventReceived(entry.getEvent());
+                }
+            }
+        });
+    }
+
+    private static void deliverEvent(List<OnEventReceivedListener> listeners, FullEvent event) {
+        for (OnEventReceivedListener listener : listeners) {
+            if (listener != null) {
+                listener.onEventReceived(event);
+            }
+        }
+    }
+
+    /**
+     * @param staleEntry our expired copy of the event, if any, to revalidate with the server
+     */
+    private static void fetchEvent(final String id, OnEventReceivedListener onEventReceivedListener, final EventRepository.Entry staleEntry) {
+        synchronized (sPendingEventListeners) {
+            List<OnEventReceivedListener> listeners = sPendingEventListeners.get(id);
+            if (listeners != null) {
+                sEventCoalescedCount++;
+                Crashlytics.log(Log.INFO, LOG_TAG, "Coalescing request for event " + id + " with in-flight request");
+                listeners.add(onEventReceivedListener);
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(onEventReceivedListener);
+            sPendingEventListeners.put(id, listeners);
+            sEventRequestCount++;
+        }
+
         Uri.Builder builder = generateApiBuilderFor("events/" + id);
-        JsonObjectRequest request = new JsonObjectRequest(
+        EventRequest request = new EventRequest(
                 builder.toString(),
-                null,
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        FullEvent event;
-                        try {
-                            event = FullEvent.parse(response);
-                        } catch (JSONException e) {
-                            Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading from event api: " + e + ": " + response);
-                            Crashlytics.logException(e);
-                            if (onEventReceivedListener != null) {
-                                onEventReceivedListener.onError(e);
-                            }
-                            return;
-                        }
-                        if (onEventReceivedListener != null) {
-                            onEventReceivedListener.onEventReceived(event);
-                        }
-                    }
-                },
                 new Response.ErrorListener() {
                     @Override
                     public void onErrorResponse(VolleyError error) {
+                        List<OnEventReceivedListener> listeners = removePendingEventListeners(id);
                         Crashlytics.log(Log.ERROR, LOG_TAG, "Error retrieving data: " + error);
                         Crashlytics.logException(error);
-                        if (onEventReceivedListener != null) {
-                            onEventReceivedListener.onError(error);
+                        for (OnEventReceivedListener listener : listeners) {
+                            if (listener != null) {
+                                listener.onError(error);
+                            }
                         }
                     }
-                });
+                }) {
+            @Override
+            protected void deliverResponse(FullEvent event) {
+                List<OnEventReceivedListener> listeners = removePendingEventListeners(id);
+                if (event == null && staleEntry == null) {
+                    // A 304 for validators we never sent, so we have nothing to show.
+                    VolleyError error = new VolleyError("Got 304 for event " + id + " without a copy to revalidate");
+                    Crashlytics.log(Log.ERROR, LOG_TAG, error.getMessage());
+                    Crashlytics.logException(error);
+                    for (OnEventReceivedListener listener : listeners) {
+                        if (listener != null) {
+                            listener.onError(error);
+                        }
+                    }
+                    return;
+                }
+                if (event == null) {
+                    // A 304, so our old copy is still current, and already parsed.
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Event " + id + " not modified");
+                    event = staleEntry.getEvent();
+                }
+                if (EventRepository.getInstance() != null) {
+                    EventRepository.getInstance().put(event, getETag(), getLastModified());
+                }
+                deliverEvent(listeners, event);
+            }
+        };
+        if (staleEntry != null) {
+            request.setValidators(staleEntry.getETag(), staleEntry.getLastModified());
+        }
         VolleySingleton.getInstance().getRequestQueue().add(request);
     }
 
+    // Bumped whenever the user starts a new search, so we can cancel everything still queued for the old one.
+    private static int sSearchGeneration;
+
+    // The periods shown in the SearchTabAdapter, which we fetch together for each search.
+    private static final SearchOptions.TimePeriod[] SEARCH_TAB_PERIODS = {
+            SearchOptions.TimePeriod.UPCOMING,
+            SearchOptions.TimePeriod.ONGOING,
+            SearchOptions.TimePeriod.PAST,
+    };
+
+    // How many results to ask for at a time. The first page is all we wait on before showing the list,
+    // and EventListFragment fetches the rest with runSearchPage as the user scrolls towards them.
+    private static final int SEARCH_PAGE_SIZE = 30;
+
+    // How long a tab can reuse results its sibling search already fetched, before it refreshes them itself.
+    private static final long MAX_SHARED_AGE_MS = 10 * 60 * 1000;
+
+    // The searches for the current generation, keyed by SearchCache.getCacheKey, so each tab can pick up its results.
+    // Only touched from the UI thread.
+    private static final Map<String, SearchProcessor> sSharedSearches = new HashMap<>();
+
+    /**
+     * The tag on every search request: which search it belongs to, and which tab asked for it.
+     */
+    static class SearchTag {
+        final int mGeneration;
+        final Object mOwner;
+
+        SearchTag(int generation, Object owner) {
+            mGeneration = generation;
+            mOwner = owner;
+        }
+    }
+
+    /**
+     * Cancels all the search requests from previous searches, whether queued or in flight.
+     * Call this from the UI thread, before starting the new search's requests.
+     */
+    public static void startNewSearchGeneration() {
+        final int generation = ++sSearchGeneration;
+        // Some of these may still be waiting on their SearchCache read, so they aren't in the queue for cancelAll.
+        for (SearchProcessor processor : sSharedSearches.values()) {
+            processor.mRequest.cancel();
+        }
+        sSharedSearches.clear();
+        VolleySingleton.getInstance().getRequestQueue().cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return request.getTag() instanceof SearchTag && ((SearchTag) request.getTag()).mGeneration < generation;
+            }
+        });
+    }
+
+    /**
+     * The tag on requests for later pages of a search, which only ever have the one tab waiting on them.
+     */
+    static class PageTag extends SearchTag {
+        PageTag(int generation, Object owner) {
+            super(generation, owner);
+        }
+    }
+
+    /**
+     * Stops delivering results to owner (ie, a search tab that's going away),
+     * and cancels any search it was waiting on or started (including the other periods' searches)
+     * that no other tab is waiting on.
+     */
+    public static void cancelSearchesFor(final Object owner) {
+        VolleySingleton.getInstance().getRequestQueue().cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return request.getTag() instanceof PageTag && ((PageTag) request.getTag()).mOwner == owner;
+            }
+        });
+        Iterator<SearchProcessor> iterator = sSharedSearches.values().iterator();
+        while (iterator.hasNext()) {
+            SearchProcessor processor = iterator.next();
+            boolean wasListening = processor.removeListenersFor(owner);
+            if (processor.mListeners.isEmpty() && (wasListening || ((SearchTag) processor.mRequest.getTag()).mOwner == owner)) {
+                processor.mRequest.cancel();
+                iterator.remove();
+            }
+        }
+    }
 
     public interface OnResultsReceivedListener {
-        void onResultsReceived(List<FullEvent> eventList, List<OneboxLink> oneboxList);
+        /**
+         * May be called twice per search: once with cached results, and again if the server's results differ.
+         * @param nextCursor for runSearchPage, or null if there are no more results (or we don't know yet)
+         */
+        void onResultsReceived(List<FullEvent> eventList, List<OneboxLink> oneboxList, String nextCursor);
         void onError(Exception exception);
     }
 
-    static class SearchProcessor implements Response.Listener<JSONObject>, Response.ErrorListener {
+    static class SearchProcessor implements Response.Listener<SearchResults>, Response.ErrorListener, SearchCache.OnCacheLoadedListener {
 
-        private final OnResultsReceivedListener mOnResultsReceivedListener;
+        private final SearchOptions mSearchOptions;
+        private final String mCacheKey;
+        // The tabs waiting on these results, as owner/listener pairs.
+        private final List<Object> mOwners = new ArrayList<>();
+        private final List<OnResultsReceivedListener> mListeners = new ArrayList<>();
 
-        public SearchProcessor(OnResultsReceivedListener onResultsReceivedListener)
+        // The cached results we've shown, to compare against the fresh results from the server.
+        private SearchResults mCachedResults;
+        // The last results we delivered, for any tab that starts listening late.
+        private SearchResults mLatestResults;
+        private long mReceivedNetworkTime;
+        private boolean mReceivedNetwork;
+        private boolean mFailed;
+        private SearchRequest mRequest;
+
+        public SearchProcessor(SearchOptions searchOptions)
         {
-            mOnResultsReceivedListener = onResultsReceivedListener;
+            mSearchOptions = searchOptions;
+            mCacheKey = SearchCache.getCacheKey(searchOptions);
         }
-        @Override
-        public void onResponse(JSONObject response) {
-            List<FullEvent> eventList = new ArrayList<>();
-            JSONArray jsonEventList;
-            if (response.has("errors")) {
-                Exception exception = null;
-                try {
-                    JSONArray errors = response.getJSONArray("errors");
-                    if (errors.length() > 0) {
-                        exception = new IOException("Errors with request: " + errors.getString(0));
-                    }
-                } catch (JSONException e) {
+
+        void addListener(Object owner, OnResultsReceivedListener onResultsReceivedListener) {
+            mOwners.add(owner);
+            mListeners.add(onResultsReceivedListener);
+            if (mLatestResults != null && onResultsReceivedListener != null) {
+                Crashlytics.log(Log.INFO, LOG_TAG, "Received " + mLatestResults.getEventList().size() + " results from shared search");
+                onResultsReceivedListener.onResultsReceived(mLatestResults.getEventList(), mLatestResults.getOneboxList(), mLatestResults.getNextCursor());
+            }
+        }
+
+        /**
+         * @return whether owner was listening
+         */
+        boolean removeListenersFor(Object owner) {
+            boolean removed = false;
+            for (int i = mOwners.size() - 1; i >= 0; i--) {
+                if (mOwners.get(i) == owner) {
+                    mOwners.remove(i);
+                    mListeners.remove(i);
+                    removed = true;
                 }
-                mOnResultsReceivedListener.onError(exception);
-                return;
             }
-            try {
-                jsonEventList = response.getJSONArray("results");
-            } catch (JSONException e) {
-                Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException: " + e);
-                Crashlytics.logException(e);
-                mOnResultsReceivedListener.onError(e);
-                return;
+            return removed;
+        }
+
+        /**
+         * Whether a newly selected tab can use this search, instead of starting its own.
+         */
+        boolean isShareable() {
+            if (mFailed || mRequest.isCanceled()) {
+                return false;
             }
-            for (int i = 0; i < jsonEventList.length(); i++) {
-                FullEvent event = null;
-                try {
-                    JSONObject jsonEvent = jsonEventList.getJSONObject(i);
-                    event = FullEvent.parse(jsonEvent);
-                    // Prefetch the first few images, so scrolling "just works"
-                    if (i < 20) {
-                        VolleySingleton volley = VolleySingleton.getInstance();
-                        volley.prefetchThumbnail(event.getThumbnailUrl());
-                    }
-                    eventList.add(event);
-                } catch (JSONException e) {
-                    String eventId = "";
-                    try {
-                        eventId = " " + jsonEventList.getJSONObject(i).getString("id");
-                    } catch (JSONException e2) {
-                    }
-                    Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException on event" + eventId + ": " + e);
-                    Crashlytics.logException(e);
+            return !mReceivedNetwork || System.currentTimeMillis() - mReceivedNetworkTime < MAX_SHARED_AGE_MS;
+        }
+
+        private void deliverResults(SearchResults results) {
+            mLatestResults = results;
+            // Copy, in case a listener starts or cancels a search from within its callback.
+            for (OnResultsReceivedListener listener : new ArrayList<>(mListeners)) {
+                if (listener != null) {
+                    listener.onResultsReceived(results.getEventList(), results.getOneboxList(), results.getNextCursor());
                 }
             }
+        }
 
-            //TODO: Return a full Results object containing events and oneboxes
-            List<OneboxLink> oneboxList = new ArrayList<>();
-            JSONArray jsonOneboxList;
-            try {
-                jsonOneboxList = response.getJSONArray("onebox_links");
-            } catch (JSONException e) {
-                Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException: " + e);
-                Crashlytics.logException(e);
-                // The oneboxes are optional, report it to the server but let it proceed here...
-                jsonOneboxList = new JSONArray();
+        @Override
+        public void onCacheLoaded(SearchResults results) {
+            // The user may have started a new search while we read the cache.
+            if (mRequest.isCanceled() || ((SearchTag) mRequest.getTag()).mGeneration != sSearchGeneration) {
+                return;
             }
-            for (int i = 0; i < jsonOneboxList.length(); i++) {
-                OneboxLink link = null;
-                try {
-                    JSONObject jsonObject = jsonOneboxList.getJSONObject(i);
-                    link = OneboxLink.parse(jsonObject);
-                    oneboxList.add(link);
-                } catch (JSONException e) {
-                    String data = "";
-                    try {
-                        data = jsonOneboxList.getJSONObject(i).toString();
-                    } catch (JSONException e2) {
-                    }
-                    Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException on object " + data + ": " + e);
-                    Crashlytics.logException(e);
-                }
+            if (results != null) {
+                mCachedResults = results;
+                Crashlytics.log(Log.INFO, LOG_TAG, "Received " + results.getEventList().size() + " results from cache");
+                deliverResults(results);
+                // Let the server tell us these are still current, instead of sending them all again.
+                mRequest.setValidators(results.getETag(), results.getLastModified());
             }
+            VolleySingleton.getInstance().getRequestQueue().add(mRequest);
+        }
 
-            if (mOnResultsReceivedListener != null) {
-                Crashlytics.log(Log.INFO, LOG_TAG, "Received " + eventList.size() + " results from server");
-                mOnResultsReceivedListener.onResultsReceived(eventList, oneboxList);
+        @Override
+        public void onResponse(SearchResults response) {
+            mReceivedNetwork = true;
+            mReceivedNetworkTime = System.currentTimeMillis();
+            if (response == null) {
+                // A 304, so the cached results we've already parsed and shown are still current.
+                Crashlytics.log(Log.INFO, LOG_TAG, "Server results not modified since cache");
+                if (mCachedResults == null) {
+                    onError(new IOException("Not modified, with no cached results"));
+                    return;
+                }
+                // Restart their expiry clock
+                SearchCache.getInstance().put(mSearchOptions, mCachedResults);
+                return;
+            }
+            // All the parsing has already happened on the network thread in SearchRequest,
+            // so all that's left to do here is hand off the results.
+            if (response.hasErrors()) {
+                onError(new IOException("Errors with request: " + response.getErrors().get(0)));
+                return;
+            }
+            SearchCache.getInstance().put(mSearchOptions, response);
+            if (EventRepository.getInstance() != null) {
+                EventRepository.getInstance().putAll(response.getEventList());
+            }
+            // Redelivering the same first page would make the tab rebuild its list for nothing.
+            if (response.hasSameResults(mCachedResults)) {
+                Crashlytics.log(Log.INFO, LOG_TAG, "Server results unchanged from cache");
+                mLatestResults = response;
+                return;
             }
+            // Cover images are prefetched by the list's CoverPrefetcher, as the user scrolls.
+            Crashlytics.log(Log.INFO, LOG_TAG, "Received " + response.getEventList().size() + " results from server");
+            deliverResults(response);
         }
 
         @Override
         public void onErrorResponse(VolleyError error) {
-            if (mOnResultsReceivedListener != null) {
-                mOnResultsReceivedListener.onError(error);
+            mReceivedNetwork = true;
+            mReceivedNetworkTime = System.currentTimeMillis();
+            onError(error);
+        }
+
+        private void onError(Exception exception) {
+            if (mCachedResults != null) {
+                // Stale results are better than a retry screen.
+                Crashlytics.log(Log.ERROR, LOG_TAG, "Error refreshing cached search results: " + exception);
+                return;
+            }
+            // Don't hand this failure to tabs selected later, they should retry for themselves.
+            mFailed = true;
+            if (sSharedSearches.get(mCacheKey) == this) {
+                sSharedSearches.remove(mCacheKey);
+            }
+            for (OnResultsReceivedListener listener : new ArrayList<>(mListeners)) {
+                if (listener != null) {
+                    listener.onError(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the search for one tab's time period.
+     *
+     * The first tab to search also fetches the other tabs' periods, so by the time the user swipes over,
+     * their results are already here (or on the way), and are handed over without another round trip.
+     *
+     * @param owner the tab running this search, for cancelSearchesFor()
+     */
+    public static void runSearch(SearchOptions searchOptions, Object owner, OnResultsReceivedListener onResultsReceivedListener) {
+        SearchProcessor searchProcessor = sSharedSearches.get(SearchCache.getCacheKey(searchOptions));
+        if (searchProcessor != null && searchProcessor.isShareable()) {
+            Crashlytics.log(Log.INFO, LOG_TAG, "Using shared search for " + searchOptions);
+        } else {
+            searchProcessor = runMultiPeriodSearch(searchOptions, owner);
+        }
+        searchProcessor.addListener(owner, onResultsReceivedListener);
+    }
+
+    /**
+     * Starts the searches for all the search tab periods of searchOptions' location and keywords,
+     * except those we already have usable results for, and returns the one for searchOptions' own period.
+     *
+     * The server has no single endpoint for all periods, so these go out as separate requests at the same time.
+     * HurlStack keeps connections alive, so they reuse the connections to the server rather than each paying for a new one.
+     */
+    static SearchProcessor runMultiPeriodSearch(SearchOptions searchOptions, Object owner) {
+        SearchProcessor searchProcessor = startSearchRequest(searchOptions, owner);
+        if (searchOptions.timePeriod == SearchOptions.TimePeriod.UNSET) {
+            return searchProcessor;
+        }
+        for (SearchOptions.TimePeriod timePeriod : SEARCH_TAB_PERIODS) {
+            if (timePeriod == searchOptions.timePeriod) {
+                continue;
+            }
+            SearchOptions otherOptions = new SearchOptions(searchOptions.location, searchOptions.keywords);
+            otherOptions.timePeriod = timePeriod;
+            SearchProcessor otherProcessor = sSharedSearches.get(SearchCache.getCacheKey(otherOptions));
+            if (otherProcessor == null || !otherProcessor.isShareable()) {
+                // No tab is listening for these yet, so they belong to the tab that started them,
+                // and are cancelled along with its own search if no other tab has picked them up.
+                startSearchRequest(otherOptions, owner);
             }
         }
+        return searchProcessor;
     }
 
-    public static void runSearch(SearchOptions searchOptions, final OnResultsReceivedListener onResultsReceivedListener) {
+    private static Uri buildSearchUri(SearchOptions searchOptions, String cursor) {
         Uri.Builder builder = generateApiBuilderFor("search");
         builder.appendQueryParameter("location", searchOptions.location);
         builder.appendQueryParameter("keywords", searchOptions.keywords);
         builder.appendQueryParameter("time_period", searchOptions.timePeriod.toString());
         builder.appendQueryParameter("distance", "10");
         builder.appendQueryParameter("distance_units", "miles");
-        final Uri searchUri = builder.build();
+        builder.appendQueryParameter("page_size", Integer.toString(SEARCH_PAGE_SIZE));
+        if (cursor != null) {
+            builder.appendQueryParameter("cursor", cursor);
+        }
+        return builder.build();
+    }
 
-        SearchProcessor searchProcessor = new SearchProcessor(onResultsReceivedListener);
+    private static SearchProcessor startSearchRequest(SearchOptions searchOptions, Object owner) {
+        final Uri searchUri = buildSearchUri(searchOptions, null);
 
-        JsonObjectRequest request = new JsonObjectRequest(
+        SearchProcessor searchProcessor = new SearchProcessor(searchOptions);
+
+        SearchRequest request = new SearchRequest(
                 searchUri.toString(),
-                null,
                 searchProcessor,
                 searchProcessor);
 
         Crashlytics.log(Log.INFO, LOG_TAG, "Querying server feed: " + searchUri);
+        // SearchCache handles the caching of search results, with our own keys and expiry.
+        request.setShouldCache(false);
+        request.setTag(new SearchTag(sSearchGeneration, owner));
+        searchProcessor.mRequest = request;
+        sSharedSearches.put(searchProcessor.mCacheKey, searchProcessor);
+        // Read the cache first, so we can show something while we wait on the server,
+        // and so the request can carry the cached results' validators. onCacheLoaded sends the request.
+        // The disk read is short next to the round trip (or the download and parse) it can save.
+        SearchCache.getInstance().get(searchOptions, searchProcessor);
+        return searchProcessor;
+    }
+
+    /**
+     * Fetches the page of results starting at cursor, from an earlier onResultsReceived.
+     * These aren't cached or shared, since only the tab that scrolled down to them needs them.
+     */
+    public static void runSearchPage(SearchOptions searchOptions, String cursor, Object owner, final OnResultsReceivedListener onResultsReceivedListener) {
+        final Uri searchUri = buildSearchUri(searchOptions, cursor);
+        SearchRequest request = new SearchRequest(
+                searchUri.toString(),
+                new Response.Listener<SearchResults>() {
+                    @Override
+                    public void onResponse(SearchResults response) {
+                        if (response.hasErrors()) {
+                            onResultsReceivedListener.onError(new IOException("Errors with request: " + response.getErrors().get(0)));
+                            return;
+                        }
+                        if (EventRepository.getInstance() != null) {
+                            EventRepository.getInstance().putAll(response.getEventList());
+                        }
+                        Crashlytics.log(Log.INFO, LOG_TAG, "Received " + response.getEventList().size() + " more results from server");
+                        onResultsReceivedListener.onResultsReceived(response.getEventList(), response.getOneboxList(), response.getNextCursor());
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        onResultsReceivedListener.onError(error);
+                    }
+                });
+
+        Crashlytics.log(Log.INFO, LOG_TAG, "Querying server feed page: " + searchUri);
         request.setShouldCache(false);
-        RequestQueue queue = VolleySingleton.getInstance().getRequestQueue();
-        queue.add(request);
+        request.setTag(new PageTag(sSearchGeneration, owner));
+        VolleySingleton.getInstance().getRequestQueue().add(request);
     }
 }
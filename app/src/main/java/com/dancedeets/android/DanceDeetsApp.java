@@ -3,6 +3,13 @@ package com.dancedeets.android;
 import android.app.Application;
 
 import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.cache.EventListHandoff;
+import com.dancedeets.android.cache.EventRepository;
+import com.dancedeets.android.cache.ResultStore;
+import com.dancedeets.android.cache.SearchCache;
+import com.dancedeets.android.gcm.AddedEventStore;
+import com.dancedeets.android.geo.LocationProvider;
+import com.dancedeets.android.util.VolleySingleton;
 import com.facebook.FacebookSdk;
 import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.Logger;
@@ -22,6 +29,22 @@ public class DanceDeetsApp extends Application {
         initializeGoogle();
         AnalyticsUtil.createInstance(getApplicationContext());
         FacebookSdk.sdkInitialize(getApplicationContext());
+        SearchCache.createInstance(getApplicationContext());
+        EventRepository.createInstance(getApplicationContext());
+        EventListHandoff.createInstance(getApplicationContext());
+        ResultStore.createInstance(getApplicationContext());
+        ApiUpdateQueue.createInstance(getApplicationContext());
+        AddedEventStore.createInstance(getApplicationContext());
+        LocationProvider.createInstance(getApplicationContext());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        VolleySingleton volley = VolleySingleton.getInstance();
+        if (volley != null) {
+            volley.trimMemory(level);
+        }
     }
 
     protected void initializeGoogle() {
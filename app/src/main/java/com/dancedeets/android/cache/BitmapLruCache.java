@@ -0,0 +1,88 @@
+package com.dancedeets.android.cache;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * An in-memory ImageLoader.ImageCache bounded by the total bytes of its bitmaps, rather than their count.
+ *
+ * If given a BitmapPool, the cache holds a reference on each cached bitmap,
+ * so evicted bitmaps can be reused once no view is displaying them.
+ */
+public class BitmapLruCache implements ImageLoader.ImageCache {
+
+    private final LruCache<String, Bitmap> mCache;
+    private final BitmapPool mBitmapPool;
+
+    private int mHits;
+    private int mMisses;
+
+    public BitmapLruCache(int maxBytes) {
+        this(maxBytes, null);
+    }
+
+    public BitmapLruCache(int maxBytes, BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (mBitmapPool != null) {
+                    mBitmapPool.release(oldValue);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        Bitmap bitmap = mCache.get(url);
+        if (bitmap != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        if (mBitmapPool != null) {
+            mBitmapPool.retain(bitmap);
+        }
+        mCache.put(url, bitmap);
+    }
+
+    /**
+     * Releases memory in response to ComponentCallbacks2.onTrimMemory.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // We're near the top of the list of background processes to be killed, so free everything.
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Either the device is running low while we're in front, or our UI is gone, so keep only the most recent images.
+            mCache.trimToSize(mCache.size() / 2);
+        }
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    public String getStats() {
+        int total = mHits + mMisses;
+        return "memory " + mHits + "/" + total + " hits, " + mCache.size() / 1024 + "KB of " + mCache.maxSize() / 1024 + "KB";
+    }
+}
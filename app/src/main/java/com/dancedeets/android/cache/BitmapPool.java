@@ -0,0 +1,194 @@
+package com.dancedeets.android.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of no-longer-used bitmaps, bucketed by size, for decodes to reuse via BitmapFactory.Options.inBitmap.
+ *
+ * Bitmaps only enter the pool once nothing references them anymore.
+ * We track that with a reference count: a pooling BitmapLruCache holds one reference while a bitmap is cached,
+ * and each view holds one while it's displaying the bitmap.
+ */
+public class BitmapPool {
+
+    // Don't burn a big bitmap on a much smaller decode.
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final long mMaxBytes;
+    private long mBytes;
+
+    // Pooled bitmaps, keyed by their allocated size
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+    // All pooled bitmaps, oldest first, so we know what to drop when the pool gets too big
+    private final LinkedList<Bitmap> mPoolOrder = new LinkedList<>();
+
+    private final Map<Bitmap, Integer> mRefCounts = new IdentityHashMap<>();
+
+    private int mReuseHits;
+    private int mReuseMisses;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    private static boolean canReuseDifferentSizes() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 4;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocatedBytes(Bitmap bitmap) {
+        if (canReuseDifferentSizes()) {
+            return bitmap.getAllocationByteCount();
+        } else {
+            return bitmap.getByteCount();
+        }
+    }
+
+    /**
+     * Returns a mutable bitmap of the given size and config, that can be drawn into or passed as inBitmap.
+     * Returns null if the pool has nothing suitable, in which case the caller should allocate its own.
+     *
+     * Before KitKat, inBitmap only works when decoding to exactly the same size and config (and no inSampleSize),
+     * so callers should only ask for the exact size they are going to decode.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int bytes = width * height * getBytesPerPixel(config);
+        Bitmap bitmap = null;
+        if (canReuseDifferentSizes()) {
+            Integer key = mBuckets.ceilingKey(bytes);
+            if (key != null && key <= bytes * MAX_SIZE_MULTIPLE) {
+                bitmap = mBuckets.get(key).getFirst();
+            }
+        } else {
+            LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+            if (bucket != null) {
+                for (Bitmap candidate : bucket) {
+                    if (candidate.getWidth() == width && candidate.getHeight() == height && candidate.getConfig() == config) {
+                        bitmap = candidate;
+                        break;
+                    }
+                }
+            }
+        }
+        if (bitmap == null) {
+            mReuseMisses++;
+            return null;
+        }
+        mReuseHits++;
+        removeFromPool(bitmap);
+        if (canReuseDifferentSizes()) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds a bitmap nobody else references (ie, a temporary decode) directly to the pool.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || mRefCounts.containsKey(bitmap)) {
+            return;
+        }
+        int bytes = getAllocatedBytes(bitmap);
+        if (bytes > mMaxBytes / 4) {
+            // Not worth keeping around
+            return;
+        }
+        LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(bytes, bucket);
+        }
+        bucket.add(bitmap);
+        mPoolOrder.add(bitmap);
+        mBytes += bytes;
+        while (mBytes > mMaxBytes) {
+            removeFromPool(mPoolOrder.getFirst());
+        }
+    }
+
+    private void removeFromPool(Bitmap bitmap) {
+        int bytes = getAllocatedBytes(bitmap);
+        LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+        if (bucket == null || !bucket.remove(bitmap)) {
+            return;
+        }
+        if (bucket.isEmpty()) {
+            mBuckets.remove(bytes);
+        }
+        mPoolOrder.remove(bitmap);
+        mBytes -= bytes;
+    }
+
+    /**
+     * Marks the bitmap as held by a cache, so it won't be reused until it is released.
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        if (count == null) {
+            // In case this is a late delivery of a bitmap that was already released.
+            removeFromPool(bitmap);
+            count = 0;
+        }
+        mRefCounts.put(bitmap, count + 1);
+    }
+
+    /**
+     * Marks the bitmap as displayed by a view, if it came from a pooling cache.
+     * Bitmaps from caches that don't use the pool are left alone, since we can't know when they're free.
+     */
+    public synchronized void retainForDisplay(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        if (count != null) {
+            mRefCounts.put(bitmap, count + 1);
+        } else if (mPoolOrder.contains(bitmap)) {
+            // It was evicted and released while its delivery to this view was still pending.
+            removeFromPool(bitmap);
+            mRefCounts.put(bitmap, 1);
+        }
+    }
+
+    /**
+     * Drops one reference to the bitmap, and pools it once nothing references it.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mRefCounts.put(bitmap, count - 1);
+        } else {
+            mRefCounts.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mPoolOrder.clear();
+        mBytes = 0;
+    }
+
+    public synchronized String getStats() {
+        return "pool " + mReuseHits + "/" + (mReuseHits + mReuseMisses) + " reused, " + mBytes / 1024 + "KB of " + mMaxBytes / 1024 + "KB";
+    }
+}
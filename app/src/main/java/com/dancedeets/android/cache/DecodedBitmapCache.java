@@ -0,0 +1,128 @@
+package com.dancedeets.android.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.util.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A disk cache of already-decoded, already-downscaled bitmaps, stored as raw pixels.
+ *
+ * Volley's own disk cache only keeps the original (often huge) JPEG bytes,
+ * so every memory cache miss costs a full decode and downsample.
+ * Loading from here is just a memory-mapped copy into a new Bitmap.
+ */
+public class DecodedBitmapCache {
+
+    private static final String LOG_TAG = "DecodedBitmapCache";
+
+    // Bump this whenever the on-disk format changes, so we ignore old files.
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 * 4;
+
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+
+    // Raw pixels are big, so don't bother with anything that wasn't downscaled to a reasonable size.
+    private static final int MAX_ENTRY_BYTES = 2 * 1024 * 1024;
+
+    private static final Bitmap.Config[] CONFIGS = Bitmap.Config.values();
+
+    private final File mCacheDir;
+    // A single thread, so writes don't compete with each other for the disk.
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    public DecodedBitmapCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "bitmaps");
+    }
+
+    private File getCacheFile(String cacheKey) {
+        return new File(mCacheDir, Hashing.md5(cacheKey));
+    }
+
+    /**
+     * Returns the cached bitmap, or null. This does disk I/O, so call it off the UI thread.
+     *
+     * @param bitmapPool may be null, to always allocate a new bitmap
+     */
+    public Bitmap get(String cacheKey, BitmapPool bitmapPool) {
+        File file = getCacheFile(cacheKey);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int config = buffer.getInt();
+            if (config < 0 || config >= CONFIGS.length || CONFIGS[config] == null) {
+                return null;
+            }
+            Bitmap bitmap = bitmapPool != null ? bitmapPool.get(width, height, CONFIGS[config]) : null;
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, CONFIGS[config]);
+            }
+            bitmap.copyPixelsFromBuffer(buffer.slice());
+            // Keep recently used files from being trimmed first
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or truncated file is just a cache miss.
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading bitmap cache file: " + e);
+            file.delete();
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the bitmap in the background. The pixels are copied before returning,
+     * so the caller is free to reuse the bitmap afterwards.
+     */
+    public void put(String cacheKey, Bitmap bitmap) {
+        if (bitmap.getConfig() == null || bitmap.getByteCount() > MAX_ENTRY_BYTES) {
+            return;
+        }
+        final File file = getCacheFile(cacheKey);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bitmap.getByteCount());
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        buffer.putInt(bitmap.getConfig().ordinal());
+        bitmap.copyPixelsToBuffer(buffer);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DiskCacheUtil.writeAtomically(file, buffer.array());
+                } catch (IOException e) {
+                    Crashlytics.log(Log.ERROR, LOG_TAG, "Error writing bitmap cache file: " + e);
+                }
+                DiskCacheUtil.trimToSize(mCacheDir, MAX_DISK_BYTES);
+            }
+        });
+    }
+}
@@ -0,0 +1,79 @@
+package com.dancedeets.android.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * File helpers shared by our on-disk caches.
+ */
+class DiskCacheUtil {
+
+    /**
+     * Writes to a temporary file first, so a reader never sees a half-written file.
+     */
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream fos = new FileOutputStream(tempFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Deletes the least-recently-written files in dir, until at most maxFiles remain.
+     */
+    static void trimToCount(File dir, int maxFiles) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= maxFiles) {
+            return;
+        }
+        sortOldestFirst(files);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Deletes the least-recently-written files in dir, until they total at most maxBytes.
+     */
+    static void trimToSize(File dir, long maxBytes) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        sortOldestFirst(files);
+        for (int i = 0; i < files.length && totalBytes > maxBytes; i++) {
+            totalBytes -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private static void sortOldestFirst(File[] files) {
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+    }
+}
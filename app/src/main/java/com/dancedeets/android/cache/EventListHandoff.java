@@ -0,0 +1,122 @@
+package com.dancedeets.android.cache;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.models.FullEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Passes event lists from the search list to EventInfoActivity by handle, rather than through the Intent.
+ *
+ * Within a process, the handle just refers to the list in memory.
+ * Each list is also snapshotted to disk in the background (as a MappedEventList),
+ * which we only read if the process was killed in the meantime.
+ * Handles come from the caller, and must be usable as file names.
+ */
+public class EventListHandoff {
+
+    private static final String LOG_TAG = "EventListHandoff";
+
+    // Enough for the lists behind a few stacked EventInfoActivities, since those opened from one search share a list
+    private static final int MEMORY_ENTRIES = 4;
+    private static final int MAX_DISK_ENTRIES = 4;
+
+    private static EventListHandoff instance;
+
+    private final File mCacheDir;
+    private final LruCache<String, List<FullEvent>> mMemoryCache = new LruCache<>(MEMORY_ENTRIES);
+    // The event ids we last snapshotted for each handle, so we can tell when a list has changed.
+    private final LruCache<String, List<String>> mSnapshotIds = new LruCache<>(MAX_DISK_ENTRIES);
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    private EventListHandoff(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "handoff");
+    }
+
+    public static EventListHandoff getInstance() {
+        return instance;
+    }
+
+    public static EventListHandoff createInstance(Context context) {
+        if (instance == null) {
+            instance = new EventListHandoff(context);
+        }
+        return instance;
+    }
+
+    private File getSnapshotFile(String handle) {
+        return new File(mCacheDir, handle);
+    }
+
+    /**
+     * Stores the list under the caller's handle, to be passed to get() later.
+     * Callers reuse one handle per list (ie, per search), so putting it again on every tap costs nothing,
+     * and we only copy and snapshot it again once its events change (ie, another page arrived).
+     */
+    public void put(final String handle, List<FullEvent> eventList) {
+        List<String> eventIds = new ArrayList<>(eventList.size());
+        for (FullEvent event : eventList) {
+            eventIds.add(event.getId());
+        }
+        if (eventIds.equals(mSnapshotIds.get(handle))) {
+            if (mMemoryCache.get(handle) == null) {
+                mMemoryCache.put(handle, new ArrayList<>(eventList));
+            }
+            // Keep the unchanged snapshot from being trimmed as the oldest.
+            mDiskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getSnapshotFile(handle).setLastModified(System.currentTimeMillis());
+                }
+            });
+            return;
+        }
+        mSnapshotIds.put(handle, eventIds);
+        // Copy the list, since callers keep modifying theirs.
+        final List<FullEvent> eventListCopy = new ArrayList<>(eventList);
+        mMemoryCache.put(handle, eventListCopy);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long time = System.currentTimeMillis();
+                try {
+                    DiskCacheUtil.writeAtomically(getSnapshotFile(handle), MappedEventList.serialize(eventListCopy));
+                } catch (IOException e) {
+                    Crashlytics.log(Log.ERROR, LOG_TAG, "Error writing event list snapshot: " + e);
+                }
+                DiskCacheUtil.trimToCount(mCacheDir, MAX_DISK_ENTRIES);
+                Crashlytics.log(Log.INFO, LOG_TAG, "Writing event list snapshot took " + (System.currentTimeMillis() - time) + "ms");
+            }
+        });
+    }
+
+    /**
+     * Returns the list for the handle, or null if it's gone.
+     * After a process restart, this maps the snapshot file, and events are decoded as they're accessed.
+     */
+    public List<FullEvent> get(String handle) {
+        List<FullEvent> eventList = mMemoryCache.get(handle);
+        if (eventList != null) {
+            return eventList;
+        }
+        try {
+            eventList = MappedEventList.open(getSnapshotFile(handle));
+        } catch (IOException | RuntimeException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error opening event list snapshot: " + e);
+            return null;
+        }
+        if (eventList != null) {
+            mMemoryCache.put(handle, eventList);
+        }
+        return eventList;
+    }
+}
@@ -0,0 +1,252 @@
+package com.dancedeets.android.cache;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.models.EventSnapshot;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.ParcelableUtil;
+import com.dancedeets.android.util.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A store of recently-seen FullEvents, keyed by event id.
+ *
+ * Events parsed from search results are saved here,
+ * so opening one of them from a notification or deep link doesn't need to go back to the server.
+ * Recent events are kept in memory, and every event is also written to its own small file on disk.
+ */
+public class EventRepository {
+
+    private static final String LOG_TAG = "EventRepository";
+
+    // Event details (times, venues, cancellations) do change, so don't trust a copy for too long.
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final int MEMORY_ENTRIES = 500;
+
+    private static final int MAX_DISK_ENTRIES = 1000;
+
+    // Our EventSnapshot metadata keys
+    private static final String METADATA_ETAG = "etag";
+    private static final String METADATA_LAST_MODIFIED = "last_modified";
+
+    private static EventRepository instance;
+
+    private final File mCacheDir;
+    private final LruCache<String, Entry> mMemoryCache = new LruCache<>(MEMORY_ENTRIES);
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static class Entry {
+        final FullEvent mEvent;
+        final long mTimestamp;
+        // The HTTP validators from /events/{id}, if that's where this copy came from.
+        final String mETag;
+        final String mLastModified;
+
+        Entry(FullEvent event, long timestamp, String eTag, String lastModified) {
+            mEvent = event;
+            mTimestamp = timestamp;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        public FullEvent getEvent() {
+            return mEvent;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - mTimestamp > MAX_AGE_MS;
+        }
+    }
+
+    public interface OnEventLoadedListener {
+        /**
+         * Called on the UI thread, with null if we have no fresh copy of the event.
+         */
+        void onEventLoaded(FullEvent event);
+    }
+
+    public interface OnEntryLoadedListener {
+        /**
+         * Called on the UI thread, with null if we have no copy of the event at all.
+         * The entry may be expired, but can still be revalidated with the server.
+         */
+        void onEntryLoaded(Entry entry);
+    }
+
+    private EventRepository(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "events");
+    }
+
+    public static EventRepository getInstance() {
+        return instance;
+    }
+
+    public static EventRepository createInstance(Context context) {
+        if (instance == null) {
+            instance = new EventRepository(context);
+        }
+        return instance;
+    }
+
+    private File getCacheFile(String id) {
+        return new File(mCacheDir, Hashing.md5(id));
+    }
+
+    /**
+     * Returns the event if it is in memory, without touching the disk. Safe to call from any thread.
+     */
+    public FullEvent getFromMemory(String id) {
+        Entry entry = mMemoryCache.get(id);
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
+        return entry.mEvent;
+    }
+
+    public void get(final String id, final OnEventLoadedListener listener) {
+        getEntry(id, new OnEntryLoadedListener() {
+            @Override
+            public void onEntryLoaded(Entry entry) {
+                listener.onEventLoaded(entry == null || entry.isExpired() ? null : entry.mEvent);
+            }
+        });
+    }
+
+    public void getEntry(final String id, final OnEntryLoadedListener listener) {
+        final Entry memoryEntry = mMemoryCache.get(id);
+        if (memoryEntry != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onEntryLoaded(memoryEntry);
+                }
+            });
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entry entry = readEntry(getCacheFile(id));
+                if (entry != null) {
+                    mMemoryCache.put(id, entry);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onEntryLoaded(entry);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores an event fetched from /events/{id}, along with the validators the server sent for it.
+     */
+    public void put(FullEvent event, String eTag, String lastModified) {
+        long timestamp = System.currentTimeMillis();
+        Entry entry = new Entry(event, timestamp, eTag, lastModified);
+        mMemoryCache.put(event.getId(), entry);
+        writeEntries(Collections.singletonList(entry));
+    }
+
+    public void put(FullEvent event) {
+        List<FullEvent> eventList = new ArrayList<>(1);
+        eventList.add(event);
+        putAll(eventList);
+    }
+
+    public void putAll(List<FullEvent> eventList) {
+        long timestamp = System.currentTimeMillis();
+        final List<Entry> changedEntries = new ArrayList<>();
+        for (FullEvent event : eventList) {
+            Entry oldEntry = mMemoryCache.get(event.getId());
+            Entry entry;
+            if (oldEntry != null && oldEntry.mEvent.equals(event)) {
+                // Same contents, so the validators we have for it still apply.
+                entry = new Entry(event, timestamp, oldEntry.mETag, oldEntry.mLastModified);
+            } else {
+                entry = new Entry(event, timestamp, null, null);
+            }
+            mMemoryCache.put(event.getId(), entry);
+            // Re-running the same search shouldn't rewrite hundreds of identical files.
+            // But we do rewrite them when they're getting old, to keep them from expiring.
+            if (oldEntry == null || !oldEntry.mEvent.equals(event) || timestamp - oldEntry.mTimestamp > MAX_AGE_MS / 2) {
+                changedEntries.add(entry);
+            }
+        }
+        writeEntries(changedEntries);
+    }
+
+    private void writeEntries(final List<Entry> changedEntries) {
+        if (changedEntries.isEmpty()) {
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long time = System.currentTimeMillis();
+                for (Entry entry : changedEntries) {
+                    writeEntry(getCacheFile(entry.mEvent.getId()), entry);
+                }
+                DiskCacheUtil.trimToCount(mCacheDir, MAX_DISK_ENTRIES);
+                Crashlytics.log(Log.INFO, LOG_TAG, "Writing " + changedEntries.size() + " events to disk took " + (System.currentTimeMillis() - time) + "ms");
+            }
+        });
+    }
+
+    private static Entry readEntry(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            EventSnapshot snapshot = EventSnapshot.read(ParcelableUtil.readBytes(file));
+            if (snapshot == null || snapshot.getEventCount() != 1) {
+                return null;
+            }
+            return new Entry(snapshot.getEvent(0), snapshot.getTimestamp(), snapshot.getMetadata(METADATA_ETAG), snapshot.getMetadata(METADATA_LAST_MODIFIED));
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or truncated file is just a cache miss.
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading event cache file: " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeEntry(File file, Entry entry) {
+        try {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put(METADATA_ETAG, entry.mETag);
+            metadata.put(METADATA_LAST_MODIFIED, entry.mLastModified);
+            byte[] bytes = EventSnapshot.write(entry.mTimestamp, Collections.singletonList(entry.mEvent), Collections.<OneboxLink>emptyList(), metadata);
+            DiskCacheUtil.writeAtomically(file, bytes);
+        } catch (IOException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error writing event cache file: " + e);
+        }
+    }
+}
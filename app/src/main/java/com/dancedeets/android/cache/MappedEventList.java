@@ -0,0 +1,57 @@
+package com.dancedeets.android.cache;
+
+import com.dancedeets.android.models.EventSnapshot;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.OneboxLink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only List of FullEvents, backed by a memory-mapped EventSnapshot file,
+ * that only decodes each event when it is first asked for.
+ */
+public class MappedEventList extends AbstractList<FullEvent> {
+
+    private final EventSnapshot mSnapshot;
+    private final FullEvent[] mDecoded;
+
+    private MappedEventList(EventSnapshot snapshot) {
+        mSnapshot = snapshot;
+        mDecoded = new FullEvent[snapshot.getEventCount()];
+    }
+
+    /**
+     * Maps the snapshot, reading only its header. Returns null if the file is missing or from another version.
+     */
+    public static MappedEventList open(File file) throws IOException {
+        EventSnapshot snapshot = EventSnapshot.open(file);
+        if (snapshot == null) {
+            return null;
+        }
+        return new MappedEventList(snapshot);
+    }
+
+    public static byte[] serialize(List<FullEvent> eventList) {
+        return EventSnapshot.write(System.currentTimeMillis(), eventList, Collections.<OneboxLink>emptyList());
+    }
+
+    @Override
+    public FullEvent get(int index) {
+        if (index < 0 || index >= mDecoded.length) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mDecoded.length);
+        }
+        if (mDecoded[index] == null) {
+            mDecoded[index] = mSnapshot.getEvent(index);
+        }
+        return mDecoded[index];
+    }
+
+    @Override
+    public int size() {
+        return mDecoded.length;
+    }
+}
@@ -0,0 +1,142 @@
+package com.dancedeets.android.cache;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.models.EventSnapshot;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.ParcelableUtil;
+import com.dancedeets.android.models.SearchResults;
+import com.dancedeets.android.util.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A process-level home for the results each search list is displaying, so they don't need to go through the Bundle.
+ *
+ * BundledState only needs to hold a key into this store.
+ * Every put is also snapshotted to disk in the background, so the results survive process death.
+ */
+public class ResultStore {
+
+    private static final String LOG_TAG = "ResultStore";
+
+    // Three tabs, for a few stacked SearchListActivities
+    private static final int MEMORY_ENTRIES = 9;
+
+    private static final int MAX_DISK_ENTRIES = 12;
+
+    private static ResultStore instance;
+
+    private final File mCacheDir;
+    private final LruCache<String, SearchResults> mMemoryCache = new LruCache<>(MEMORY_ENTRIES);
+    // A single thread, so snapshots of the same key are written in order.
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private ResultStore(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "results");
+    }
+
+    public static ResultStore getInstance() {
+        return instance;
+    }
+
+    public static ResultStore createInstance(Context context) {
+        if (instance == null) {
+            instance = new ResultStore(context);
+        }
+        return instance;
+    }
+
+    private File getCacheFile(String key) {
+        return new File(mCacheDir, Hashing.md5(key));
+    }
+
+    public void put(final String key, List<FullEvent> eventList, List<OneboxLink> oneboxList) {
+        // Copy the lists, since callers keep modifying theirs.
+        final SearchResults results = new SearchResults(new ArrayList<>(eventList), new ArrayList<>(oneboxList));
+        mMemoryCache.put(key, results);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeResults(getCacheFile(key), results);
+                DiskCacheUtil.trimToCount(mCacheDir, MAX_DISK_ENTRIES);
+            }
+        });
+    }
+
+    public interface OnResultsLoadedListener {
+        /**
+         * Called on the UI thread, with null if the results are gone.
+         */
+        void onResultsLoaded(SearchResults results);
+    }
+
+    /**
+     * Returns the stored results if they're still in memory, or null, without touching the disk.
+     */
+    public SearchResults getFromMemory(String key) {
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * Reads the stored results back from disk in the background, ie after the process was killed since they were stored.
+     * This runs on the same thread as our writes, so it sees any snapshot still being written.
+     */
+    public void load(final String key, final OnResultsLoadedListener listener) {
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long time = System.currentTimeMillis();
+                final SearchResults results = readResults(getCacheFile(key));
+                if (results != null) {
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Restoring " + results.getEventList().size() + " results from disk took " + (System.currentTimeMillis() - time) + "ms");
+                    mMemoryCache.put(key, results);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onResultsLoaded(results);
+                    }
+                });
+            }
+        });
+    }
+
+    private static SearchResults readResults(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            EventSnapshot snapshot = EventSnapshot.read(ParcelableUtil.readBytes(file));
+            if (snapshot == null) {
+                return null;
+            }
+            return new SearchResults(snapshot.getEventList(), snapshot.getOneboxList());
+        } catch (IOException | RuntimeException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading result snapshot: " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeResults(File file, SearchResults results) {
+        try {
+            byte[] bytes = EventSnapshot.write(System.currentTimeMillis(), results.getEventList(), results.getOneboxList());
+            DiskCacheUtil.writeAtomically(file, bytes);
+        } catch (IOException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error writing result snapshot: " + e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.dancedeets.android.cache;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.eventlist.SearchOptions;
+import com.dancedeets.android.models.EventSnapshot;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.ParcelableUtil;
+import com.dancedeets.android.models.SearchResults;
+import com.dancedeets.android.util.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A persistent cache of search results, keyed by the SearchOptions (and locale) they were fetched with.
+ *
+ * This lets us show the last results for a search immediately,
+ * while DanceDeetsApi.runSearch revalidates them against the server in the background.
+ */
+public class SearchCache {
+
+    private static final String LOG_TAG = "SearchCache";
+
+    // Results older than this are too stale to show, even while we refresh them.
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    // Three tabs for the current search and one previous search.
+    private static final int MEMORY_ENTRIES = 6;
+
+    private static final int MAX_DISK_ENTRIES = 30;
+
+    // Our EventSnapshot metadata keys
+    private static final String METADATA_ETAG = "etag";
+    private static final String METADATA_LAST_MODIFIED = "last_modified";
+    private static final String METADATA_NEXT_CURSOR = "next_cursor";
+
+    private static SearchCache instance;
+
+    private final File mCacheDir;
+    private final LruCache<String, Entry> mMemoryCache = new LruCache<>(MEMORY_ENTRIES);
+    // A single thread, so reads and writes of the same file are ordered.
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    static class Entry {
+        final SearchResults mResults;
+        final long mTimestamp;
+
+        Entry(SearchResults results, long timestamp) {
+            mResults = results;
+            mTimestamp = timestamp;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - mTimestamp > MAX_AGE_MS;
+        }
+    }
+
+    public interface OnCacheLoadedListener {
+        /**
+         * Called on the UI thread, with null if there were no usable cached results.
+         */
+        void onCacheLoaded(SearchResults results);
+    }
+
+    private SearchCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), "search");
+    }
+
+    public static SearchCache getInstance() {
+        return instance;
+    }
+
+    public static SearchCache createInstance(Context context) {
+        if (instance == null) {
+            instance = new SearchCache(context);
+        }
+        return instance;
+    }
+
+    public static String getCacheKey(SearchOptions searchOptions) {
+        return searchOptions.location + "|" + searchOptions.keywords + "|" + searchOptions.timePeriod + "|" + Locale.getDefault();
+    }
+
+    private File getCacheFile(String cacheKey) {
+        return new File(mCacheDir, Hashing.md5(cacheKey));
+    }
+
+    public void get(SearchOptions searchOptions, final OnCacheLoadedListener listener) {
+        final String cacheKey = getCacheKey(searchOptions);
+        Entry entry = mMemoryCache.get(cacheKey);
+        if (entry != null) {
+            deliver(cacheKey, entry, listener);
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entry entry = readEntry(getCacheFile(cacheKey));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (entry != null) {
+                            mMemoryCache.put(cacheKey, entry);
+                        }
+                        deliver(cacheKey, entry, listener);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(final String cacheKey, final Entry entry, final OnCacheLoadedListener listener) {
+        if (entry == null || entry.isExpired()) {
+            listener.onCacheLoaded(null);
+        } else {
+            // Post even on a memory hit, so callers see the same ordering as a disk hit.
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Crashlytics.log(Log.INFO, LOG_TAG, "Cache hit for " + cacheKey + ", age " + (System.currentTimeMillis() - entry.mTimestamp) + "ms");
+                    listener.onCacheLoaded(entry.mResults);
+                }
+            });
+        }
+    }
+
+    public void put(SearchOptions searchOptions, SearchResults results) {
+        final String cacheKey = getCacheKey(searchOptions);
+        final Entry entry = new Entry(results, System.currentTimeMillis());
+        mMemoryCache.put(cacheKey, entry);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeEntry(getCacheFile(cacheKey), entry);
+                DiskCacheUtil.trimToCount(mCacheDir, MAX_DISK_ENTRIES);
+            }
+        });
+    }
+
+    private static Entry readEntry(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        long time = System.currentTimeMillis();
+        try {
+            EventSnapshot snapshot = EventSnapshot.read(ParcelableUtil.readBytes(file));
+            if (snapshot == null) {
+                return null;
+            }
+            List<FullEvent> eventList = snapshot.getEventList();
+            List<OneboxLink> oneboxList = snapshot.getOneboxList();
+            Crashlytics.log(Log.INFO, LOG_TAG, "Loading " + eventList.size() + " results from disk took " + (System.currentTimeMillis() - time) + "ms");
+            SearchResults results = new SearchResults(eventList, oneboxList, new ArrayList<String>(), snapshot.getMetadata(METADATA_NEXT_CURSOR));
+            results.setValidators(snapshot.getMetadata(METADATA_ETAG), snapshot.getMetadata(METADATA_LAST_MODIFIED));
+            return new Entry(results, snapshot.getTimestamp());
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or truncated file is just a cache miss.
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading search cache file: " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeEntry(File file, Entry entry) {
+        try {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put(METADATA_ETAG, entry.mResults.getETag());
+            metadata.put(METADATA_LAST_MODIFIED, entry.mResults.getLastModified());
+            metadata.put(METADATA_NEXT_CURSOR, entry.mResults.getNextCursor());
+            byte[] bytes = EventSnapshot.write(entry.mTimestamp, entry.mResults.getEventList(), entry.mResults.getOneboxList(), metadata);
+            DiskCacheUtil.writeAtomically(file, bytes);
+        } catch (IOException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error writing search cache file: " + e);
+        }
+    }
+}
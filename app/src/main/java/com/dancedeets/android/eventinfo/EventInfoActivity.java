@@ -26,10 +26,11 @@ import com.dancedeets.android.LoginActivity;
 import com.dancedeets.android.R;
 import com.dancedeets.android.SendFeedback;
 import com.dancedeets.android.SettingsActivity;
+import com.dancedeets.android.cache.EventListHandoff;
+import com.dancedeets.android.cache.EventRepository;
 import com.dancedeets.android.gcm.ListenerService;
-import com.dancedeets.android.geo.FetchLocation;
+import com.dancedeets.android.geo.LocationProvider;
 import com.dancedeets.android.models.FullEvent;
-import com.dancedeets.android.models.ParcelableUtil;
 import com.dancedeets.android.uistate.BundledState;
 import com.dancedeets.android.uistate.RetainedState;
 import com.dancedeets.android.uistate.StateHolder;
@@ -39,34 +40,85 @@ import com.google.android.gms.ads.doubleclick.PublisherInterstitialAd;
 
 import org.json.JSONException;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import bolts.AppLinks;
 
 
-public class EventInfoActivity extends FacebookActivity implements StateHolder<BundledState, RetainedState>, FetchLocation.LocationListener {
+public class EventInfoActivity extends FacebookActivity implements StateHolder<BundledState, RetainedState>, LocationProvider.LocationListener {
 
     private static final String LOG_TAG = "EventInfoActivity";
 
     public static final String ARG_EVENT_DATA = "EVENT_DATA";
-    public static final String ARG_EVENT_LIST_FILENAME = "EVENT_ID_LIST_FILENAME";
+    public static final String ARG_EVENT_LIST_HANDLE = "EVENT_LIST_HANDLE";
     public static final String ARG_EVENT_INDEX = "EVENT_INDEX";
 
     protected ViewPager mViewPager;
     protected EventInfoPagerAdapter mEventInfoPagerAdapter;
     protected RetainedState mRetained;
 
-    private FetchLocation mFetchLocation;
     private PublisherInterstitialAd mInterstitialAd;
 
     static class MyBundledState extends BundledState {
-        public List<FullEvent> mEventList = new ArrayList<>();
+        // The list itself is kept by EventListHandoff, so we only serialize its handle.
+        public transient List<FullEvent> mEventList = new ArrayList<>();
+        public String mEventListHandle;
         public int mEventIndex;
+        // The event at mEventIndex, in case the list behind our handle has changed since.
+        public String mEventId;
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            mEventList = new ArrayList<>();
+        }
+
+        public void setEvent(FullEvent event) {
+            mEventList = new ArrayList<>(1);
+            mEventList.add(event);
+            mEventIndex = 0;
+            mEventId = event.getId();
+            // Keyed by the event, so reopening it reuses the same snapshot.
+            mEventListHandle = "event-" + event.getId();
+            EventListHandoff.getInstance().put(mEventListHandle, mEventList);
+        }
+
+        /**
+         * Reloads mEventList from its handle, returning false if it's no longer available.
+         */
+        public boolean restoreEventList() {
+            if (mEventListHandle == null) {
+                return false;
+            }
+            List<FullEvent> eventList = EventListHandoff.getInstance().get(mEventListHandle);
+            if (eventList == null) {
+                return false;
+            }
+            if (mEventId != null && (mEventIndex >= eventList.size() || !eventList.get(mEventIndex).getId().equals(mEventId))) {
+                // The search refreshed its list under the same handle, so find where our event went.
+                int eventIndex = indexOfEvent(eventList, mEventId);
+                if (eventIndex < 0) {
+                    return false;
+                }
+                mEventIndex = eventIndex;
+            }
+            if (mEventIndex >= eventList.size()) {
+                return false;
+            }
+            mEventList = eventList;
+            return true;
+        }
+
+        private static int indexOfEvent(List<FullEvent> eventList, String eventId) {
+            for (int i = 0; i < eventList.size(); i++) {
+                if (eventList.get(i).getId().equals(eventId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     protected MyBundledState mBundled;
@@ -85,43 +137,18 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
         return new RetainedState();
     }
 
-    private static File getCacheFile(Context context) {
-        return new File(context.getExternalCacheDir(), "event_list.json");
-    }
-
-    private static void writeFile(File eventListFile, ArrayList<FullEvent> eventList) throws IOException {
-        OutputStream fos = new FileOutputStream(eventListFile);
-        long time = System.currentTimeMillis();
-        fos.write(ParcelableUtil.marshallList(eventList));
-        Crashlytics.log(Log.INFO, LOG_TAG, "Writing eventList to disk took " + (System.currentTimeMillis() - time) + "ms");
-        fos.close();
-    }
-
-    private static ArrayList<FullEvent> readFile(File eventListFile) throws IOException, ClassNotFoundException {
-        byte[] bytes = ParcelableUtil.readBytes(eventListFile);
-        ArrayList<FullEvent> eventList = new ArrayList<>();
-        long time = System.currentTimeMillis();
-        ParcelableUtil.unmarshallList(bytes, eventList, FullEvent.CREATOR);
-        Crashlytics.log(Log.INFO, LOG_TAG, "Loading eventList from disk took " + (System.currentTimeMillis() - time) + "ms");
-        return eventList;
-    }
-
-    public static Intent buildIntentFor(Context context, ArrayList<FullEvent> eventList, int positionSelected) {
+    /**
+     * @param eventListHandle stays the same for as long as eventList is the same search's results,
+     *                        so repeated taps share one snapshot
+     */
+    public static Intent buildIntentFor(Context context, ArrayList<FullEvent> eventList, String eventListHandle, int positionSelected) {
         Bundle bundle = new Bundle();
-        File eventListFile = getCacheFile(context);
-        try {
-            writeFile(eventListFile, eventList);
-        } catch (IOException e) {
-            //Instead of a file of all events, give up and pass in one event as a last-case resort.
-            Crashlytics.log(Log.ERROR, LOG_TAG, "Using single-event fail-safe, due to error writing event list cache file: " + e);
-            bundle.putParcelable(ARG_EVENT_DATA, eventList.get(positionSelected));
-            Intent intent = new Intent(context, EventInfoActivity.class);
-            intent.putExtras(bundle);
-            return intent;
-        }
-        String eventListFilename = eventListFile.getAbsolutePath();
-        bundle.putString(ARG_EVENT_LIST_FILENAME, eventListFilename);
+        // Any new snapshot is written to disk in the background, so the tap doesn't wait on it.
+        EventListHandoff.getInstance().put(eventListHandle, eventList);
+        bundle.putString(ARG_EVENT_LIST_HANDLE, eventListHandle);
         bundle.putInt(ARG_EVENT_INDEX, positionSelected);
+        // Also pass the selected event itself, in case the list is gone by the time we get it.
+        bundle.putParcelable(ARG_EVENT_DATA, eventList.get(positionSelected));
         Intent intent = new Intent(context, EventInfoActivity.class);
         intent.putExtras(bundle);
         return intent;
@@ -150,12 +177,15 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
             // and only be overridden by any onNewIntent down the line.
             String tag = getUniqueTag();
             mBundled = (MyBundledState) savedInstanceState.getSerializable(tag);
-            Crashlytics.log(Log.INFO, LOG_TAG, "onCreate.savedInstanceState: List size is " + mBundled.mEventList.size());
-            Crashlytics.log(Log.INFO, LOG_TAG, "onCreate.savedInstanceState: Event index is " + mBundled.mEventIndex);
-            // Only initialize the viewpager if we've gotten a full bundled state,
-            // otherwise we're probably waiting for an event callback, so do nothing here.
-            if (mBundled.mEventList.size() != 0) {
+            if (mBundled.restoreEventList()) {
+                Crashlytics.log(Log.INFO, LOG_TAG, "onCreate.savedInstanceState: List size is " + mBundled.mEventList.size());
+                Crashlytics.log(Log.INFO, LOG_TAG, "onCreate.savedInstanceState: Event index is " + mBundled.mEventIndex);
                 initializeViewPagerWithBundledState();
+            } else {
+                // The snapshot behind our handle is gone (or we were still waiting on an event callback),
+                // so start over from the intent.
+                Crashlytics.log(Log.WARN, LOG_TAG, "onCreate.savedInstanceState: Event list is gone, reloading from intent");
+                handleIntent(getIntent());
             }
         }
 
@@ -166,14 +196,13 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
 
     public void onStart() {
         super.onStart();
-        mFetchLocation = new FetchLocation();
-        mFetchLocation.onStart(this, this);
+        LocationProvider.getInstance().requestLocation(this);
     }
 
     @Override
     public void onStop() {
         super.onStop();
-        mFetchLocation.onStop();
+        LocationProvider.getInstance().cancelRequest(this);
     }
 
 
@@ -232,6 +261,9 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
 
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
+        if (mBundled.mEventIndex < mBundled.mEventList.size()) {
+            mBundled.mEventId = mBundled.mEventList.get(mBundled.mEventIndex).getId();
+        }
         outState.putSerializable(getUniqueTag(), mBundled);
     }
 
@@ -271,31 +303,36 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
             List<String> pathSegments = url.getPathSegments();
             if (pathSegments.size() == 2 && pathSegments.get(0).equals("events")) {
                 String eventId = pathSegments.get(1);
-                // Add Event requests
-                DanceDeetsApi.getEvent(eventId, new EventHandler(mRetained));
+                // If we've seen this event recently (in search results, or prefetched by the push that
+                // brought us here), show it right away without waiting on a callback.
+                // Otherwise getEvent still checks the EventRepository's disk copy before the network.
+                EventRepository repository = EventRepository.getInstance();
+                FullEvent event = repository == null ? null : repository.getFromMemory(eventId);
+                if (event != null) {
+                    onEventReceived(event);
+                } else {
+                    // Add Event requests
+                    DanceDeetsApi.getEvent(eventId, new EventHandler(mRetained));
+                }
             }
             Crashlytics.log(Log.INFO, LOG_TAG, "handleIntent: Loading " + url);
             Crashlytics.setString("Intent View URL", url.toString());
             return true;
         } else if (intent.getExtras() != null) {
             Bundle b = intent.getExtras();
-            if (b.containsKey(ARG_EVENT_DATA)) {
-                FullEvent event = b.getParcelable(ARG_EVENT_DATA);
-                Crashlytics.log(Log.INFO, LOG_TAG, "Intent.getExtras: Got single event fail-safe: " + event);
-                mBundled.mEventIndex = 0;
-                mBundled.mEventList = new ArrayList<>(1);
-                mBundled.mEventList.add(event);
-            } else if (b.containsKey(ARG_EVENT_LIST_FILENAME)) {
-                try {
-                    mBundled.mEventList = readFile(new File(b.getString(ARG_EVENT_LIST_FILENAME)));
-                } catch (IOException | ClassNotFoundException e) {
-                    mBundled.mEventList = null;
-                    Crashlytics.log(Log.ERROR, LOG_TAG, "Error reading event list cache file: " + e);
-                    Crashlytics.logException(e);
-                }
+            if (b.containsKey(ARG_EVENT_LIST_HANDLE)) {
+                mBundled.mEventListHandle = b.getString(ARG_EVENT_LIST_HANDLE);
                 mBundled.mEventIndex = b.getInt(ARG_EVENT_INDEX);
+                FullEvent selectedEvent = b.getParcelable(ARG_EVENT_DATA);
+                mBundled.mEventId = selectedEvent == null ? null : selectedEvent.getId();
+            }
+            if (mBundled.restoreEventList()) {
                 Crashlytics.log(Log.INFO, LOG_TAG, "Intent.getExtras: List size is " + mBundled.mEventList.size());
                 Crashlytics.log(Log.INFO, LOG_TAG, "Intent.getExtras: Event index is " + mBundled.mEventIndex);
+            } else if (b.containsKey(ARG_EVENT_DATA)) {
+                FullEvent event = b.getParcelable(ARG_EVENT_DATA);
+                Crashlytics.log(Log.INFO, LOG_TAG, "Intent.getExtras: Got single event fail-safe: " + event);
+                mBundled.setEvent(event);
             } else {
                 Crashlytics.log(Log.ERROR, LOG_TAG, "Intent.getExtras unexpected, value is " + b);
                 mBundled.mEventList = new ArrayList<>();
@@ -311,9 +348,7 @@ public class EventInfoActivity extends FacebookActivity implements StateHolder<B
     }
 
     protected void onEventReceived(FullEvent event) {
-        mBundled.mEventList = new ArrayList<>(1);
-        mBundled.mEventList.add(event);
-        mBundled.mEventIndex = 0;
+        mBundled.setEvent(event);
         Crashlytics.log(Log.INFO, LOG_TAG, "onEventReceived: List size is " + mBundled.mEventList.size());
         Crashlytics.log(Log.INFO, LOG_TAG, "onEventReceived: Event index is " + mBundled.mEventIndex);
         //eventInfoActivity.mEventInfoPagerAdapter.notifyDataSetChanged();
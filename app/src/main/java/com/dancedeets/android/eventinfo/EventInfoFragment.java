@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.CalendarContract;
@@ -35,6 +36,8 @@ import com.dancedeets.android.uistate.BundledState;
 import com.dancedeets.android.uistate.RetainedState;
 import com.dancedeets.android.uistate.StateFragment;
 import com.dancedeets.android.util.JsonArrayRequest;
+import com.dancedeets.android.util.PlaceholderNetworkImageView;
+import com.dancedeets.android.util.RequestClass;
 import com.dancedeets.android.util.VolleySingleton;
 import com.facebook.AccessToken;
 import com.facebook.CallbackManager;
@@ -414,7 +417,12 @@ public class EventInfoFragment extends StateFragment<
                     translateUrl.toString(),
                     body,
                     translateEventListener,
-                    translateEventListener);
+                    translateEventListener) {
+                @Override
+                public Priority getPriority() {
+                    return RequestClass.INTERACTIVE.priority;
+                }
+            };
             jsonRequest.setShouldCache(false);
             queue.add(jsonRequest);
         }
@@ -429,12 +437,31 @@ public class EventInfoFragment extends StateFragment<
         return rootView;
     }
 
+    /**
+     * The width of the cover on screen: the full page width, inside event_info's padding.
+     * Computed from resources, so ListenerService can prefetch the cover before any view exists.
+     */
+    public static int getCoverWidth(Resources resources) {
+        return resources.getDisplayMetrics().widthPixels - 2 * resources.getDimensionPixelSize(R.dimen.event_info_horizontal_padding);
+    }
+
+    /**
+     * The smallest cover that fills width, rather than always the largest.
+     * ListenerService prefetches this same URL, so a notification opens straight from the cache.
+     */
+    public static String getCoverUrl(FullEvent event, int width) {
+        if (event.getCoverData() == null) {
+            return event.getCoverUrl();
+        }
+        return PlaceholderNetworkImageView.getCoverUrl(event.getCoverData(), width, 0);
+    }
+
     public void fillOutView(View rootView, FullEvent event) {
         List<NamedPerson> adminList = event.getAdmins();
         Crashlytics.log(Log.INFO, LOG_TAG, "admin list: " + adminList);
         ImageLoader photoLoader = VolleySingleton.getInstance().getPhotoLoader();
         NetworkImageView cover = (NetworkImageView) rootView.findViewById(R.id.cover);
-        cover.setImageUrl(event.getCoverUrl(), photoLoader);
+        cover.setImageUrl(getCoverUrl(event, getCoverWidth(getResources())), photoLoader);
         cover.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -0,0 +1,181 @@
+package com.dancedeets.android.eventlist;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+import com.dancedeets.android.R;
+import com.dancedeets.android.eventlist.adapter.EventListItem;
+import com.dancedeets.android.eventlist.adapter.ListItem;
+import com.dancedeets.android.models.CoverData;
+import com.dancedeets.android.util.PlaceholderNetworkImageView;
+import com.dancedeets.android.util.TieredImageLoader;
+
+/**
+ * Prefetches the covers for the rows the user is about to scroll to,
+ * at the same size (and so the same cache key) that PlaceholderNetworkImageView will request them.
+ *
+ * It looks further ahead the faster the user scrolls, in whichever direction they're scrolling.
+ * While the list is flinging, we stop prefetching entirely, since we can't know where it will land,
+ * and any rows that scroll out of range have their prefetches cancelled.
+ */
+public class CoverPrefetcher implements AbsListView.OnScrollListener {
+
+    // How many rows to prefetch while scrolling slowly (or not at all)
+    private static final int MIN_ROWS_AHEAD = 3;
+    private static final int MAX_ROWS_AHEAD = 12;
+    // How far into the future to prefetch, at the current scroll speed
+    private static final float LOOKAHEAD_SECONDS = 1.5f;
+    // Keep prefetches for a row or two behind us, in case the user changes direction
+    private static final int ROWS_BEHIND = 2;
+
+    private final EventListAdapter mAdapter;
+    private final TieredImageLoader mImageLoader;
+    private final Object mOwner;
+
+    // Prefetches in flight (or finished), keyed by adapter position
+    private final SparseArray<ImageLoader.ImageContainer> mPrefetches = new SparseArray<>();
+
+    private int mScrollState = SCROLL_STATE_IDLE;
+    private int mCoverWidth;
+
+    private int mLastFirstVisible = -1;
+    private int mLastVisibleCount;
+    private long mLastScrollTime;
+    private boolean mScrollingDown = true;
+    private float mRowsPerSecond;
+
+    private final ImageLoader.ImageListener mPrefetchListener = new ImageLoader.ImageListener() {
+        @Override
+        public void onErrorResponse(VolleyError error) {
+        }
+
+        @Override
+        public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+        }
+    };
+
+    /**
+     * @param owner tags our prefetches, so TieredImageLoader.cancelAll(owner) can cancel them too
+     */
+    public CoverPrefetcher(EventListAdapter adapter, TieredImageLoader imageLoader, Object owner) {
+        mAdapter = adapter;
+        mImageLoader = imageLoader;
+        mOwner = owner;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        mScrollState = scrollState;
+        if (scrollState == SCROLL_STATE_FLING) {
+            // Don't compete with the images the user can actually see.
+            cancelAll();
+        } else if (scrollState == SCROLL_STATE_IDLE) {
+            mRowsPerSecond = 0;
+            prefetch(view, view.getFirstVisiblePosition(), view.getChildCount());
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem == mLastFirstVisible && visibleItemCount == mLastVisibleCount) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (mLastFirstVisible != -1 && firstVisibleItem != mLastFirstVisible) {
+            mScrollingDown = firstVisibleItem > mLastFirstVisible;
+            long elapsed = Math.max(1, now - mLastScrollTime);
+            mRowsPerSecond = Math.abs(firstVisibleItem - mLastFirstVisible) * 1000f / elapsed;
+        }
+        mLastFirstVisible = firstVisibleItem;
+        mLastVisibleCount = visibleItemCount;
+        mLastScrollTime = now;
+
+        if (mScrollState != SCROLL_STATE_FLING) {
+            prefetch(view, firstVisibleItem, visibleItemCount);
+        }
+    }
+
+    private int getCoverWidth(AbsListView view) {
+        for (int i = 0; i < view.getChildCount(); i++) {
+            View cover = view.getChildAt(i).findViewById(R.id.event_list_cover);
+            if (cover != null && cover.getWidth() > 0) {
+                mCoverWidth = cover.getWidth();
+                break;
+            }
+        }
+        return mCoverWidth;
+    }
+
+    private void prefetch(AbsListView view, int firstVisible, int visibleCount) {
+        if (view.getAdapter() != mAdapter || visibleCount == 0) {
+            return;
+        }
+        int coverWidth = getCoverWidth(view);
+        if (coverWidth == 0) {
+            // Nothing laid out yet, so we don't know what size to fetch
+            return;
+        }
+        int rowsAhead = Math.max(MIN_ROWS_AHEAD, Math.min(MAX_ROWS_AHEAD, (int) (mRowsPerSecond * LOOKAHEAD_SECONDS)));
+        int lastVisible = firstVisible + visibleCount - 1;
+        int start, end;
+        if (mScrollingDown) {
+            start = lastVisible + 1;
+            end = Math.min(mAdapter.getCount() - 1, lastVisible + rowsAhead);
+        } else {
+            start = Math.max(0, firstVisible - rowsAhead);
+            end = firstVisible - 1;
+        }
+
+        // Cancel anything that's fallen out of range. Visible rows have their own requests, from their views.
+        int keepStart = mScrollingDown ? firstVisible - ROWS_BEHIND : start;
+        int keepEnd = mScrollingDown ? end : lastVisible + ROWS_BEHIND;
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int position = mPrefetches.keyAt(i);
+            if (position < keepStart || position > keepEnd) {
+                mImageLoader.cancelPrefetch(mPrefetches.valueAt(i), mOwner);
+                mPrefetches.removeAt(i);
+            }
+        }
+
+        for (int position = start; position <= end; position++) {
+            if (mPrefetches.get(position) != null) {
+                continue;
+            }
+            ListItem item = mAdapter.getItem(position);
+            if (!(item instanceof EventListItem)) {
+                continue;
+            }
+            CoverData coverData = ((EventListItem) item).getEvent().getCoverData();
+            if (coverData == null) {
+                continue;
+            }
+            String url = PlaceholderNetworkImageView.getCoverUrl(coverData, coverWidth, 0);
+            mPrefetches.put(position, mImageLoader.prefetch(url, mPrefetchListener, coverWidth, 0, mOwner));
+        }
+    }
+
+    /**
+     * Cancels all outstanding prefetches, ie when the list contents are about to change.
+     */
+    public void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            mImageLoader.cancelPrefetch(mPrefetches.valueAt(i), mOwner);
+        }
+        mPrefetches.clear();
+    }
+
+    /**
+     * Forgets our scroll state, for when the list is refilled with new contents.
+     */
+    public void reset() {
+        cancelAll();
+        mLastFirstVisible = -1;
+        mLastVisibleCount = 0;
+        mRowsPerSecond = 0;
+        mScrollingDown = true;
+    }
+}
@@ -1,11 +1,14 @@
 package com.dancedeets.android.eventlist;
 
 import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 
+import com.crashlytics.android.Crashlytics;
 import com.dancedeets.android.eventlist.adapter.EventListItem;
 import com.dancedeets.android.eventlist.adapter.HeaderListItem;
 import com.dancedeets.android.eventlist.adapter.ListItem;
@@ -13,9 +16,12 @@ import com.dancedeets.android.eventlist.adapter.OneboxListItem;
 import com.dancedeets.android.models.FullEvent;
 import com.dancedeets.android.models.OneboxLink;
 
+import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * An Adapter for mapping Event objects to the Event ListView UI.
@@ -24,32 +30,169 @@ public class EventListAdapter extends BaseAdapter {
 
     private static String LOG_TAG = "EventListAdapter";
 
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
     private LayoutInflater mInflater;
-    private List<ListItem> mList = new ArrayList();
+    private List<ListItem> mList = new ArrayList<>();
+
+    private UpdateRowsTask mPendingUpdate;
+
+    public interface OnRowsUpdatedListener {
+        /**
+         * Called on the UI thread once the new rows are in place.
+         * @param changed false if the new rows were identical to the old ones, and nothing was done
+         */
+        void onRowsUpdated(boolean changed);
+    }
 
     public EventListAdapter(Context context) {
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
     }
 
-    public void rebuildList(List<FullEvent> eventList, List<OneboxLink> oneboxLinkList) {
-        mList.clear();
+    /**
+     * Flattens the results into onebox, header and event rows. This is safe to call off the UI thread.
+     */
+    static List<ListItem> buildRows(LayoutInflater inflater, List<FullEvent> eventList, List<OneboxLink> oneboxLinkList) {
+        List<ListItem> rows = new ArrayList<>(oneboxLinkList.size() + eventList.size() * 2);
         for (int i = 0; i < oneboxLinkList.size(); i++) {
             OneboxLink onebox = oneboxLinkList.get(i);
-            mList.add(new OneboxListItem(mInflater, onebox));
+            rows.add(new OneboxListItem(inflater, onebox));
         }
-        Calendar lastCal = Calendar.getInstance();
-        Calendar curCal = Calendar.getInstance();
+        addEventRows(inflater, rows, eventList, Long.MIN_VALUE);
+        return rows;
+    }
+
+    // The local day number, which is all we need to spot a new day (without a Calendar per event)
+    private static long getLocalDay(long startTime, TimeZone timeZone) {
+        long localTime = startTime + timeZone.getOffset(startTime);
+        return localTime >= 0 ? localTime / MILLIS_PER_DAY : (localTime + 1) / MILLIS_PER_DAY - 1;
+    }
+
+    /**
+     * Adds the event rows onto rows, with a header wherever the day changes (including from lastDay).
+     */
+    private static void addEventRows(LayoutInflater inflater, List<ListItem> rows, List<FullEvent> eventList, long lastDay) {
+        // Fresh DateFormats, since they aren't thread-safe
+        DateFormat headerDateFormat = DateFormat.getDateInstance(DateFormat.LONG);
+        EventListItem.Formatter formatter = new EventListItem.Formatter();
+        TimeZone timeZone = TimeZone.getDefault();
         for (int i = 0; i < eventList.size(); i++) {
             FullEvent event = eventList.get(i);
-            curCal.setTime(event.getStartTime());
-            if (i == 0 ||
-                    curCal.get(Calendar.YEAR) != lastCal.get(Calendar.YEAR) ||
-                    curCal.get(Calendar.DAY_OF_YEAR) != lastCal.get(Calendar.DAY_OF_YEAR)
-                    ) {
-                mList.add(new HeaderListItem(mInflater, event));
+            long startTime = event.getStartTimeLong();
+            long day = getLocalDay(startTime, timeZone);
+            if (day != lastDay) {
+                rows.add(new HeaderListItem(inflater, headerDateFormat.format(startTime)));
+                lastDay = day;
+            }
+            rows.add(new EventListItem(inflater, event, formatter));
+        }
+    }
+
+    /**
+     * Rebuilds all the rows immediately, on the UI thread. Use this when restoring a list,
+     * where the rows need to be in place before the ListView restores its scroll position.
+     */
+    public void rebuildList(List<FullEvent> eventList, List<OneboxLink> oneboxLinkList) {
+        cancelPendingUpdate();
+        mList = buildRows(mInflater, eventList, oneboxLinkList);
+    }
+
+    /**
+     * Adds rows for another page of events onto the end of the list, on the UI thread.
+     * A page is small enough to build right away, and the existing rows are left untouched,
+     * so the ListView keeps its scroll position.
+     * Callers must not do this while an updateListAsync is pending, since that would replace these rows.
+     */
+    public void appendEvents(List<FullEvent> eventList) {
+        long lastDay = Long.MIN_VALUE;
+        for (int i = mList.size() - 1; i >= 0; i--) {
+            if (mList.get(i) instanceof EventListItem) {
+                lastDay = getLocalDay(((EventListItem) mList.get(i)).getEvent().getStartTimeLong(), TimeZone.getDefault());
+                break;
+            }
+        }
+        List<ListItem> rows = new ArrayList<>(mList.size() + eventList.size() * 2);
+        rows.addAll(mList);
+        addEventRows(mInflater, rows, eventList, lastDay);
+        mList = rows;
+        notifyDataSetChanged();
+    }
+
+    public boolean hasPendingUpdate() {
+        return mPendingUpdate != null;
+    }
+
+    /**
+     * Builds the new rows in the background, and diffs them against the current rows by id,
+     * keeping any rows whose contents are unchanged.
+     * If nothing changed, the adapter isn't touched at all. Otherwise, we notifyDataSetChanged(),
+     * and since our ids are stable, the ListView keeps its scroll position.
+     */
+    public void updateListAsync(List<FullEvent> eventList, List<OneboxLink> oneboxLinkList, OnRowsUpdatedListener listener) {
+        cancelPendingUpdate();
+        // Copy the lists, since the caller may keep modifying theirs while we work.
+        mPendingUpdate = new UpdateRowsTask(new ArrayList<>(eventList), new ArrayList<>(oneboxLinkList), new ArrayList<>(mList), listener);
+        // Not the default serial executor, so we don't queue up behind a slow geocode.
+        mPendingUpdate.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    public void cancelPendingUpdate() {
+        if (mPendingUpdate != null) {
+            mPendingUpdate.cancel(false);
+            mPendingUpdate = null;
+        }
+    }
+
+    private class UpdateRowsTask extends AsyncTask<Void, Void, List<ListItem>> {
+        private final List<FullEvent> mEventList;
+        private final List<OneboxLink> mOneboxList;
+        private final List<ListItem> mOldRows;
+        private final OnRowsUpdatedListener mListener;
+        private boolean mChanged;
+
+        UpdateRowsTask(List<FullEvent> eventList, List<OneboxLink> oneboxList, List<ListItem> oldRows, OnRowsUpdatedListener listener) {
+            mEventList = eventList;
+            mOneboxList = oneboxList;
+            mOldRows = oldRows;
+            mListener = listener;
+        }
+
+        @Override
+        protected List<ListItem> doInBackground(Void... params) {
+            List<ListItem> newRows = buildRows(mInflater, mEventList, mOneboxList);
+
+            Map<Integer, ListItem> oldRowsById = new HashMap<>(mOldRows.size());
+            for (ListItem row : mOldRows) {
+                oldRowsById.put(row.getItemId(), row);
+            }
+            mChanged = newRows.size() != mOldRows.size();
+            for (int i = 0; i < newRows.size(); i++) {
+                ListItem newRow = newRows.get(i);
+                ListItem oldRow = oldRowsById.get(newRow.getItemId());
+                if (oldRow != null && oldRow.hasSameContents(newRow)) {
+                    // Keep the existing row object
+                    newRows.set(i, oldRow);
+                    newRow = oldRow;
+                }
+                if (!mChanged && newRow != mOldRows.get(i)) {
+                    mChanged = true;
+                }
+            }
+            return newRows;
+        }
+
+        @Override
+        protected void onPostExecute(List<ListItem> newRows) {
+            if (mPendingUpdate != this) {
+                return;
+            }
+            mPendingUpdate = null;
+            if (mChanged) {
+                mList = newRows;
+                notifyDataSetChanged();
             }
-            mList.add(new EventListItem(mInflater, event));
-            lastCal.setTime(event.getStartTime());
+            Crashlytics.log(Log.INFO, LOG_TAG, "Updated " + newRows.size() + " rows, changed: " + mChanged);
+            mListener.onRowsUpdated(mChanged);
         }
     }
 
@@ -4,13 +4,16 @@ import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.AnimationUtils;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.ListView;
@@ -18,21 +21,27 @@ import android.widget.TextView;
 
 import com.crashlytics.android.Crashlytics;
 import com.dancedeets.android.AnalyticsUtil;
+import com.dancedeets.android.BuildConfig;
 import com.dancedeets.android.DanceDeetsApi;
 import com.dancedeets.android.R;
 import com.dancedeets.android.WebViewActivity;
+import com.dancedeets.android.cache.ResultStore;
 import com.dancedeets.android.eventlist.adapter.EventListItem;
 import com.dancedeets.android.eventlist.adapter.ListItem;
 import com.dancedeets.android.eventlist.adapter.OneboxListItem;
 import com.dancedeets.android.models.FullEvent;
 import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.SearchResults;
 import com.dancedeets.android.uistate.BundledState;
 import com.dancedeets.android.uistate.RetainedState;
 import com.dancedeets.android.uistate.StateFragment;
 import com.dancedeets.android.util.VolleySingleton;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class EventListFragment extends StateFragment<EventListFragment.MyBundledState, RetainedState> implements AdapterView.OnItemClickListener {
 
@@ -40,6 +49,7 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
 
     EventListAdapter eventAdapter;
     ListView mList;
+    CoverPrefetcher mCoverPrefetcher;
 
     TextView mListDescription;
     /**
@@ -49,10 +59,18 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
     private Callbacks mCallbacks = null;
 
     private static final String LIST_STATE = "LIST_STATE";
+    // Start fetching the next page once the user is within this many rows of the end.
+    private static final int LOAD_MORE_ROWS = 10;
     private SearchOptions mSearchOptions = new SearchOptions();
     private boolean mTwoPane;
 
     private boolean mPendingSearch = false;
+    // Set if our results were lost with the process, so we rerun the search once our views exist.
+    private boolean mSearchAfterRestore = false;
+    // Set while our results are being read back from disk after process death.
+    private boolean mLoadingResults = false;
+    // The saved scroll position, to apply once those results are shown.
+    private Parcelable mPendingListState;
 
     enum VisibleState {
         PROGRESS, LIST, EMPTY, RETRY
@@ -67,12 +85,25 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
     View mVisibleContainer;
 
     static protected class MyBundledState extends BundledState {
-        ArrayList<FullEvent> mEventList = new ArrayList<>();
+        // The results themselves live in the ResultStore, and are not serialized into the Bundle.
+        transient ArrayList<FullEvent> mEventList = new ArrayList<>();
 
-        ArrayList<OneboxLink> mOneboxList = new ArrayList<>();
+        transient ArrayList<OneboxLink> mOneboxList = new ArrayList<>();
+
+        // Our key into the ResultStore, and the ids we expect to find there.
+        final String mResultsKey = UUID.randomUUID().toString();
+        ArrayList<String> mEventIds = new ArrayList<>();
+        // Counts our searches, so each one's results get their own EventListHandoff handle.
+        int mSearchCount;
 
         boolean mInitiatedSearch = false;
 
+        // Where the next page of results starts, or null if we have them all.
+        String mNextCursor;
+        // The cursor that came with the first page, so we can tell if a fresh first page still leads on to our later pages.
+        String mFirstPageCursor;
+        transient boolean mLoadingPage;
+
         boolean mTwoPane;
 
         SearchOptions mSearchOptions;
@@ -82,6 +113,69 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
             mTwoPane = twoPane;
             mSearchOptions = searchOptions;
         }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            mEventList = new ArrayList<>();
+            mOneboxList = new ArrayList<>();
+        }
+
+        /**
+         * The EventListHandoff handle for our current results, which stays the same as later pages arrive.
+         */
+        String getEventListHandle() {
+            return mResultsKey + "-" + mSearchCount;
+        }
+
+        void storeResults() {
+            mEventIds = new ArrayList<>(mEventList.size());
+            for (FullEvent event : mEventList) {
+                mEventIds.add(event.getId());
+            }
+            ResultStore.getInstance().put(mResultsKey, mEventList, mOneboxList);
+        }
+
+        /**
+         * Reloads our results from the ResultStore's memory after being deserialized.
+         * Returns false if they aren't there, and need to be loaded from disk.
+         */
+        boolean restoreResults() {
+            if (mEventIds.isEmpty()) {
+                return true;
+            }
+            // On an in-process recreation (ie, rotation), the Bundle hands back this same instance, lists and all.
+            if (matchesEventIds(mEventList)) {
+                return true;
+            }
+            return setResults(ResultStore.getInstance().getFromMemory(mResultsKey));
+        }
+
+        /**
+         * Takes the results stored under our key, returning false if they're gone or aren't the ones we saved.
+         */
+        boolean setResults(SearchResults results) {
+            if (results == null || !matchesEventIds(results.getEventList())) {
+                return false;
+            }
+            List<FullEvent> eventList = results.getEventList();
+            mEventList.clear();
+            mEventList.addAll(eventList);
+            mOneboxList.clear();
+            mOneboxList.addAll(results.getOneboxList());
+            return true;
+        }
+
+        private boolean matchesEventIds(List<FullEvent> eventList) {
+            if (eventList.size() != mEventIds.size()) {
+                return false;
+            }
+            for (int i = 0; i < eventList.size(); i++) {
+                if (!eventList.get(i).getId().equals(mEventIds.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     /**
@@ -92,8 +186,10 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
     public interface Callbacks {
         /**
          * Callback for when an item has been selected.
+         *
+         * @param eventListHandle identifies allEvents for EventListHandoff, until the next search
          */
-        void onEventSelected(ArrayList<FullEvent> allEvents, int positionSelected);
+        void onEventSelected(ArrayList<FullEvent> allEvents, String eventListHandle, int positionSelected);
     }
 
     public EventListFragment() {
@@ -142,30 +238,107 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         return new RetainedState();
     }
 
-    protected void handleEventList(List<FullEvent> eventList, List<OneboxLink> oneboxList) {
+    protected void handleEventList(List<FullEvent> eventList, List<OneboxLink> oneboxList, String nextCursor) {
+        // We may get called a second time, when fresh results replace the cached ones.
+        boolean firstResults = mBundled.mWaitingForSearch;
+        if (!firstResults && isFirstPageUnchanged(eventList, oneboxList, nextCursor)) {
+            // The user may have paged on from the cached first page, so keep those pages (and their scroll position).
+            Log("handleEventList: first page unchanged, keeping " + mBundled.mEventList.size() + " results");
+            return;
+        }
         mBundled.mWaitingForSearch = false;
+        mBundled.mFirstPageCursor = nextCursor;
+        mBundled.mNextCursor = nextCursor;
+        mBundled.mLoadingPage = false;
         mBundled.mEventList.clear();
         mBundled.mEventList.addAll(eventList);
         mBundled.mOneboxList.clear();
         mBundled.mOneboxList.addAll(oneboxList);
-        AnalyticsUtil.track("Searched Results",
-                "Location", mBundled.mSearchOptions.location,
-                "Keywords", mBundled.mSearchOptions.keywords,
-                "Tab", mBundled.mSearchOptions.timePeriod.toString(),
-                "Result Count", Integer.toString(mBundled.mEventList.size()),
-                "Onebox Count", Integer.toString(mBundled.mOneboxList.size())
-        );
+        mBundled.storeResults();
+        if (firstResults) {
+            AnalyticsUtil.track("Searched Results",
+                    "Location", mBundled.mSearchOptions.location,
+                    "Keywords", mBundled.mSearchOptions.keywords,
+                    "Tab", mBundled.mSearchOptions.timePeriod.toString(),
+                    "Result Count", Integer.toString(mBundled.mEventList.size()),
+                    "Onebox Count", Integer.toString(mBundled.mOneboxList.size())
+            );
+        }
 
         onEventListFilled(false);
     }
 
+    private boolean isFirstPageUnchanged(List<FullEvent> eventList, List<OneboxLink> oneboxList, String nextCursor) {
+        List<FullEvent> currentList = mBundled.mEventList;
+        return TextUtils.equals(nextCursor, mBundled.mFirstPageCursor)
+                && oneboxList.equals(mBundled.mOneboxList)
+                && currentList.size() >= eventList.size()
+                && currentList.subList(0, eventList.size()).equals(eventList);
+    }
+
     protected void onEventListFilled(boolean startup) {
-        eventAdapter.rebuildList(mBundled.mEventList, mBundled.mOneboxList);
-        mList.setAdapter(eventAdapter);
+        if (startup) {
+            // Build the rows right away, so the ListView can restore its scroll position onto them.
+            mCoverPrefetcher.reset();
+            eventAdapter.rebuildList(mBundled.mEventList, mBundled.mOneboxList);
+            mList.setAdapter(eventAdapter);
+            showListOrEmpty(false);
+            return;
+        }
+        eventAdapter.updateListAsync(mBundled.mEventList, mBundled.mOneboxList, new EventListAdapter.OnRowsUpdatedListener() {
+            @Override
+            public void onRowsUpdated(boolean changed) {
+                if (changed) {
+                    // Any prefetches were for the old rows
+                    mCoverPrefetcher.reset();
+                }
+                // If we're refreshing results already on screen, the adapter has kept the user's scroll position.
+                if (mList.getAdapter() != eventAdapter) {
+                    mList.setAdapter(eventAdapter);
+                }
+                if (mPendingListState != null) {
+                    mList.onRestoreInstanceState(mPendingListState);
+                    mPendingListState = null;
+                }
+                showListOrEmpty(true);
+            }
+        });
+    }
+
+    /**
+     * Fetches the next page of results, if there is one and we aren't already.
+     */
+    void loadNextPage() {
+        if (mBundled.mNextCursor == null || mBundled.mLoadingPage || mBundled.mWaitingForSearch) {
+            return;
+        }
+        Log("loadNextPage: " + mBundled.mEventList.size() + " results so far");
+        mBundled.mLoadingPage = true;
+        DanceDeetsApi.runSearchPage(mBundled.mSearchOptions, mBundled.mNextCursor, mRetained, new PageReceivedHandler(mRetained, mBundled.mNextCursor));
+    }
+
+    protected void handleEventPage(String cursor, List<FullEvent> eventList, String nextCursor) {
+        // Ignore pages of a list that has since been replaced.
+        if (!cursor.equals(mBundled.mNextCursor)) {
+            return;
+        }
+        mBundled.mLoadingPage = false;
+        mBundled.mNextCursor = nextCursor;
+        mBundled.mEventList.addAll(eventList);
+        mBundled.storeResults();
+        if (eventAdapter.hasPendingUpdate()) {
+            // That update would replace any rows we appended now, so rebuild from the full list instead.
+            onEventListFilled(false);
+        } else {
+            eventAdapter.appendEvents(eventList);
+        }
+    }
+
+    private void showListOrEmpty(boolean animate) {
         if (mBundled.mEventList.isEmpty()) {
-            setStateShown(VisibleState.EMPTY, !startup);
+            setStateShown(VisibleState.EMPTY, animate);
         } else {
-            setStateShown(VisibleState.LIST, !startup);
+            setStateShown(VisibleState.LIST, animate);
         }
     }
 
@@ -176,6 +349,47 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         searchOptions.keywords = newSearchOptions.keywords;
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (savedInstanceState != null && !mBundled.restoreResults()) {
+            loadResults();
+        }
+    }
+
+    /**
+     * Reads our results back from disk in the background, ie after process death, showing progress until they're ready.
+     */
+    private void loadResults() {
+        Log("Loading " + mBundled.mEventIds.size() + " results from disk");
+        mLoadingResults = true;
+        ResultStore.getInstance().load(mBundled.mResultsKey, new ResultStore.OnResultsLoadedListener() {
+            @Override
+            public void onResultsLoaded(SearchResults results) {
+                // Superseded by a new search, or we're gone
+                if (!mLoadingResults) {
+                    return;
+                }
+                mLoadingResults = false;
+                if (!mBundled.setResults(results)) {
+                    Log("Could not restore " + mBundled.mEventIds.size() + " results, searching again");
+                    mBundled.mEventIds.clear();
+                    mPendingListState = null;
+                    if (getView() == null) {
+                        mSearchAfterRestore = true;
+                    } else {
+                        startSearch();
+                    }
+                    return;
+                }
+                // Without a view yet, onCreateView will show these itself.
+                if (getView() != null) {
+                    onEventListFilled(false);
+                }
+            }
+        });
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -205,6 +419,21 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         eventAdapter = new EventListAdapter(inflater.getContext());
         mList = (ListView)rootView.findViewById(android.R.id.list);
         mList.setOnItemClickListener(this);
+        mCoverPrefetcher = new CoverPrefetcher(eventAdapter, VolleySingleton.getInstance().getCoverLoader(), mRetained);
+        mList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mCoverPrefetcher.onScrollStateChanged(view, scrollState);
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                mCoverPrefetcher.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - LOAD_MORE_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
         mList.setAdapter(null);
 
         if (mBundled.mEventList.size() > 0 && !mBundled.mWaitingForSearch) {
@@ -278,16 +507,44 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
 
     // END Derived from ListFragment
 
+    @Override
+    public void onDestroyView() {
+        eventAdapter.cancelPendingUpdate();
+        mCoverPrefetcher.cancelAll();
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoadingResults = false;
+        // Our requests are tagged with mRetained, which outlives us across rotations.
+        // So only cancel them when this tab is really going away.
+        if (isRemoving() || getActivity().isFinishing()) {
+            DanceDeetsApi.cancelSearchesFor(mRetained);
+            VolleySingleton.getInstance().getCoverLoader().cancelAll(mRetained);
+        }
+        super.onDestroy();
+    }
+
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         // We don't use mList.setEmptyView(), since it will be used
         // on all null-or-empty adapters (ie, in-progress, empty, retry)
         // So instead we just handle it ourselves with our state management.
 
+        if (mSearchAfterRestore) {
+            mSearchAfterRestore = false;
+            startSearch();
+            return;
+        }
+
         // Reload scroll state
         if (savedInstanceState != null) {
             Parcelable savedState = savedInstanceState.getParcelable(LIST_STATE);
-            if (savedState != null) {
+            if (mLoadingResults) {
+                // There are no rows to scroll yet, so wait until our results are loaded.
+                mPendingListState = savedState;
+            } else if (savedState != null) {
                 mList.onRestoreInstanceState(savedState);
             }
         }
@@ -295,11 +552,20 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
 
     @Override
     public void onSaveInstanceState(Bundle state) {
+        long time = System.nanoTime();
         super.onSaveInstanceState(state);
         // Save scroll state
         if (getView() != null) {
             state.putParcelable(LIST_STATE, mList.onSaveInstanceState());
         }
+        if (BuildConfig.DEBUG) {
+            long saveTime = System.nanoTime() - time;
+            // Marshalling the Bundle again is not free, so only measure its size in debug builds.
+            Parcel parcel = Parcel.obtain();
+            parcel.writeBundle(state);
+            Log("onSaveInstanceState took " + saveTime / 1000 + "us, Bundle is " + parcel.dataSize() + " bytes for " + mBundled.mEventIds.size() + " results");
+            parcel.recycle();
+        }
     }
 
     public void loadSearchTab() {
@@ -317,6 +583,8 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
             return;
         }
         mBundled.mInitiatedSearch = true;
+        mLoadingResults = false;
+        mPendingListState = null;
         SearchOptions searchOptions = getSearchOptions();
         Log("startSearch: " + searchOptions);
         // Our layout sets android:freezesText="true" , which ensures this is retained across device rotations.
@@ -331,11 +599,22 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         mListDescription.setText(listDescription);
 
         mList.setAdapter(null);
+        eventAdapter.cancelPendingUpdate();
+        mCoverPrefetcher.reset();
         setStateShown(VisibleState.PROGRESS, false);
 
+        // Clear these together, so we neither show the old oneboxes nor save the old ids while the new results load.
         mBundled.mEventList.clear();
+        mBundled.mOneboxList.clear();
+        mBundled.mEventIds.clear();
+        mBundled.mSearchCount++;
+        mBundled.mNextCursor = null;
+        mBundled.mFirstPageCursor = null;
+        mBundled.mLoadingPage = false;
         mBundled.mWaitingForSearch = true;
-        DanceDeetsApi.runSearch(mBundled.mSearchOptions, new ResultsReceivedHandler(mRetained));
+        // Drop any earlier search from this tab (ie, a retry), so its results can't arrive after the new ones.
+        DanceDeetsApi.cancelSearchesFor(mRetained);
+        DanceDeetsApi.runSearch(mBundled.mSearchOptions, mRetained, new ResultsReceivedHandler(mRetained));
     }
 
     public static class ResultsReceivedHandler implements DanceDeetsApi.OnResultsReceivedListener {
@@ -346,9 +625,9 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         }
 
         @Override
-        public void onResultsReceived(List<FullEvent> eventList, List<OneboxLink> oneboxList) {
+        public void onResultsReceived(List<FullEvent> eventList, List<OneboxLink> oneboxList, String nextCursor) {
             EventListFragment listFragment = (EventListFragment)mRetained.getTargetFragment();
-            listFragment.handleEventList(eventList, oneboxList);
+            listFragment.handleEventList(eventList, oneboxList, nextCursor);
         }
 
         @Override
@@ -361,6 +640,32 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
         }
     }
 
+    public static class PageReceivedHandler implements DanceDeetsApi.OnResultsReceivedListener {
+        private RetainedState mRetained;
+        private String mCursor;
+
+        public PageReceivedHandler(RetainedState retainedState, String cursor) {
+            mRetained = retainedState;
+            mCursor = cursor;
+        }
+
+        @Override
+        public void onResultsReceived(List<FullEvent> eventList, List<OneboxLink> oneboxList, String nextCursor) {
+            EventListFragment listFragment = (EventListFragment)mRetained.getTargetFragment();
+            listFragment.handleEventPage(mCursor, eventList, nextCursor);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            EventListFragment listFragment = (EventListFragment)mRetained.getTargetFragment();
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Error retrieving more search results, with error: " + exception);
+            // Leave the cursor alone, so we try again the next time the user scrolls.
+            if (mCursor.equals(listFragment.mBundled.mNextCursor)) {
+                listFragment.mBundled.mLoadingPage = false;
+            }
+        }
+    }
+
     protected void Log(String log) {
         Crashlytics.log(Log.INFO, LOG_TAG, getSearchOptions().timePeriod.toString() +  ": " + log);
     }
@@ -414,7 +719,7 @@ public class EventListFragment extends StateFragment<EventListFragment.MyBundled
             // fragment is attached to one) that an item has been selected.
             if (mCallbacks != null) {
                 int eventListPosition = mBundled.mEventList.indexOf(event);
-                mCallbacks.onEventSelected(mBundled.mEventList, eventListPosition);
+                mCallbacks.onEventSelected(mBundled.mEventList, mBundled.getEventListHandle(), eventListPosition);
             }
         } else if (item instanceof OneboxListItem) {
             OneboxLink onebox = ((OneboxListItem)item).getOnebox();
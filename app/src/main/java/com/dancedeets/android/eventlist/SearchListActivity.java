@@ -20,6 +20,7 @@ import android.widget.Toast;
 import com.crashlytics.android.Crashlytics;
 import com.dancedeets.android.AdManager;
 import com.dancedeets.android.AnalyticsUtil;
+import com.dancedeets.android.DanceDeetsApi;
 import com.dancedeets.android.FacebookActivity;
 import com.dancedeets.android.HelpSystem;
 import com.dancedeets.android.LoginActivity;
@@ -30,7 +31,7 @@ import com.dancedeets.android.eventinfo.EventInfoActivity;
 import com.dancedeets.android.eventinfo.EventInfoFragment;
 import com.dancedeets.android.gcm.ListenerService;
 import com.dancedeets.android.geo.FetchAddress;
-import com.dancedeets.android.geo.FetchLocation;
+import com.dancedeets.android.geo.LocationProvider;
 import com.dancedeets.android.models.FullEvent;
 import com.dancedeets.android.uistate.BundledState;
 import com.dancedeets.android.uistate.RetainedState;
@@ -43,7 +44,7 @@ import com.google.android.gms.ads.doubleclick.PublisherAdView;
 import java.util.ArrayList;
 
 
-public class SearchListActivity extends FacebookActivity implements StateHolder<SearchListActivity.MyBundledState, RetainedState>, EventListFragment.Callbacks, SearchDialogFragment.OnSearchListener, FetchLocation.LocationListener, FetchAddress.AddressListener, SearchTabAdapter.SearchOptionsManager {
+public class SearchListActivity extends FacebookActivity implements StateHolder<SearchListActivity.MyBundledState, RetainedState>, EventListFragment.Callbacks, SearchDialogFragment.OnSearchListener, LocationProvider.LocationListener, FetchAddress.AddressListener, SearchTabAdapter.SearchOptionsManager {
 
     private static final String LOG_TAG = "SearchListActivity";
 
@@ -55,7 +56,6 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
 
     private ViewPager mViewPager;
 
-    private FetchLocation mFetchLocation;
     private FetchAddress mFetchAddress;
 
     // These are exposed as member variables for the sake of testing.
@@ -165,8 +165,8 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
         super.onStart();
         mFetchAddress = new FetchAddress();
         mFetchAddress.onStart(this, this);
-        mFetchLocation = new FetchLocation();
-        mFetchLocation.onStart(this, this);
+        // This is answered by the same location fetch as mFetchAddress.
+        LocationProvider.getInstance().requestLocation(this);
     }
 
     @Override
@@ -175,7 +175,7 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
         if (mFetchAddress != null) {
             mFetchAddress.onStop();
         }
-        mFetchLocation.onStop();
+        LocationProvider.getInstance().cancelRequest(this);
     }
 
     public void startSearchFor(SearchOptions newSearchOptions) {
@@ -186,6 +186,8 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
             return;
         }
         mBundled.mSearchOptions = newSearchOptions;
+        // Cancel whatever the old tabs were still loading, before it takes a network slot or parsing time.
+        DanceDeetsApi.startNewSearchGeneration();
         // We construct a new adapter and set it, which clears all the existing fragment state
         SearchTabAdapter adapter = new SearchTabAdapter(getFragmentManager(), this, getResources(), mTwoPane);
         mViewPager.setAdapter(adapter);
@@ -317,7 +319,7 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
      * the item with the given ID was selected.
      */
     @Override
-    public void onEventSelected(ArrayList<FullEvent> allEvents, int positionSelected) {
+    public void onEventSelected(ArrayList<FullEvent> allEvents, String eventListHandle, int positionSelected) {
         FullEvent event = allEvents.get(positionSelected);
         Crashlytics.log(Log.INFO, LOG_TAG, "Sending Event: " + event);
         Crashlytics.log("onEventSelected: Index " + positionSelected + ": Event " + event.getId());
@@ -341,7 +343,7 @@ public class SearchListActivity extends FacebookActivity implements StateHolder<
             }
 
         } else {
-            Intent intent = EventInfoActivity.buildIntentFor(this, allEvents, positionSelected);
+            Intent intent = EventInfoActivity.buildIntentFor(this, allEvents, eventListHandle, positionSelected);
 
             // In single-pane mode, simply start the detail activity
             // for the selected item ID.
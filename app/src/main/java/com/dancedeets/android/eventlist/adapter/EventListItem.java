@@ -12,6 +12,10 @@ import com.dancedeets.android.R;
 import com.dancedeets.android.util.VolleySingleton;
 import com.dancedeets.android.models.CoverData;
 import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.Venue;
+
+import java.text.DateFormat;
+import java.util.Locale;
 
 /**
  * Created by lambert on 2015/11/08.
@@ -21,6 +25,29 @@ public class EventListItem implements ListItem {
     private final LayoutInflater mInflater;
     private FullEvent mEvent;
 
+    // The row's display strings, built once when the row is created (normally off the UI thread),
+    // so that binding a recycled view during a fling is just a few setText calls.
+    private Locale mLocale;
+    private String mLocationText;
+    private String mStartTimeText;
+    private String mCategoriesText;
+
+    /**
+     * Holds the DateFormats for building a batch of rows.
+     * DateFormats aren't thread-safe, so each batch (and thread) gets its own Formatter.
+     */
+    public static class Formatter {
+        final Locale mLocale;
+        final DateFormat mDateFormat;
+        final DateFormat mDateTimeFormat;
+
+        public Formatter() {
+            mLocale = Locale.getDefault();
+            mDateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM, mLocale);
+            mDateTimeFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT, mLocale);
+        }
+    }
+
     static class ViewBinder {
         NetworkImageView icon;
         PlaceholderNetworkImageView cover;
@@ -30,9 +57,28 @@ public class EventListItem implements ListItem {
         TextView categories;
     }
 
-    public EventListItem(LayoutInflater inflater, FullEvent event) {
+    public EventListItem(LayoutInflater inflater, FullEvent event, Formatter formatter) {
         mInflater = inflater;
         mEvent = event;
+        buildDisplayStrings(formatter);
+    }
+
+    private void buildDisplayStrings(Formatter formatter) {
+        mLocale = formatter.mLocale;
+        Venue venue = mEvent.getVenue();
+        if (venue.hasName()) {
+            mLocationText = venue.getName() + ", " + venue.getCityStateCountry();
+        } else {
+            mLocationText = "";
+        }
+        if (mEvent.getStartTimeLong() == 0) {
+            mStartTimeText = null;
+        } else if (mEvent.isAllDayEvent()) {
+            mStartTimeText = formatter.mDateFormat.format(mEvent.getStartTimeLong());
+        } else {
+            mStartTimeText = formatter.mDateTimeFormat.format(mEvent.getStartTimeLong());
+        }
+        mCategoriesText = "(" + mEvent.getCategoriesAsString() + ")";
     }
 
     public int getItemId() {
@@ -49,9 +95,20 @@ public class EventListItem implements ListItem {
         return ItemType.EVENT.value;
     }
 
+    @Override
+    public boolean hasSameContents(ListItem other) {
+        return other instanceof EventListItem &&
+                mEvent.equals(((EventListItem) other).mEvent) &&
+                mLocale.equals(((EventListItem) other).mLocale);
+    }
+
     protected void bindView(View view) {
+        if (!mLocale.equals(Locale.getDefault())) {
+            // The locale changed underneath us, which should be rare enough to just rebuild here.
+            buildDisplayStrings(new Formatter());
+        }
         ImageLoader thumbnailLoader = VolleySingleton.getInstance().getThumbnailLoader();
-        ImageLoader photoLoader = VolleySingleton.getInstance().getPhotoLoader();
+        ImageLoader coverLoader = VolleySingleton.getInstance().getCoverLoader();
 
         ViewBinder viewBinder = (ViewBinder)view.getTag();
         if (viewBinder.icon != null) {
@@ -60,7 +117,7 @@ public class EventListItem implements ListItem {
         if (viewBinder.cover != null) {
             CoverData coverData = mEvent.getCoverData();
             if (coverData != null) {
-                viewBinder.cover.setCoverImage(coverData, photoLoader);
+                viewBinder.cover.setCoverImage(coverData, coverLoader);
             } else {
                 viewBinder.cover.setImageDrawable(null);
             }
@@ -68,13 +125,9 @@ public class EventListItem implements ListItem {
 
         viewBinder.title.setText(mEvent.getTitle());
 
-        if (mEvent.getVenue().hasName()) {
-            viewBinder.location.setText(mEvent.getVenue().getName() + ", " + mEvent.getVenue().getCityStateCountry());
-        } else {
-            viewBinder.location.setText("");
-        }
-        viewBinder.startTime.setText(mEvent.getStartTimeString());
-        viewBinder.categories.setText("(" + mEvent.getCategoriesAsString() + ")");
+        viewBinder.location.setText(mLocationText);
+        viewBinder.startTime.setText(mStartTimeText);
+        viewBinder.categories.setText(mCategoriesText);
     }
 
     public View createView(View convertView, ViewGroup parent) {
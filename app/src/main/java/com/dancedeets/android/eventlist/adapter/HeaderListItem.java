@@ -6,9 +6,6 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.dancedeets.android.R;
-import com.dancedeets.android.models.FullEvent;
-
-import java.text.DateFormat;
 
 /**
  * Created by lambert on 2015/11/08.
@@ -17,11 +14,12 @@ public class HeaderListItem implements ListItem {
     private final LayoutInflater mInflater;
     private String mTitle;
 
-    static DateFormat localizedDateFormat = DateFormat.getDateInstance(DateFormat.LONG);
-
-    public HeaderListItem(LayoutInflater inflater, FullEvent event) {
+    /**
+     * @param title the localized date for this header, which EventListAdapter formats once per rebuild
+     */
+    public HeaderListItem(LayoutInflater inflater, String title) {
         mInflater = inflater;
-        mTitle = localizedDateFormat.format(event.getStartTimeLong());
+        mTitle = title;
     }
 
     public int getItemId() {
@@ -32,6 +30,11 @@ public class HeaderListItem implements ListItem {
         return ItemType.HEADER.value;
     }
 
+    @Override
+    public boolean hasSameContents(ListItem other) {
+        return other instanceof HeaderListItem && mTitle.equals(((HeaderListItem) other).mTitle);
+    }
+
     @Override
     public View createView(View convertView, ViewGroup parent) {
         View view;
@@ -24,4 +24,9 @@ public interface ListItem {
     int getItemId();
     int getItemViewType();
     View createView(View convertView, ViewGroup parent);
+
+    /**
+     * Returns true if other would display exactly the same as this item, so a refresh can keep the existing row.
+     */
+    boolean hasSameContents(ListItem other);
 }
@@ -25,13 +25,19 @@ public class OneboxListItem implements ListItem {
     }
 
     public int getItemId() {
-        return Math.abs(mOnebox.hashCode());
+        // OneboxLink has no hashCode, and the URL is what identifies the link across refreshes anyway.
+        return Math.abs(mOnebox.getUrl().hashCode());
     }
 
     public int getItemViewType() {
         return ItemType.ONEBOX.value;
     }
 
+    @Override
+    public boolean hasSameContents(ListItem other) {
+        return other instanceof OneboxListItem && mOnebox.equals(((OneboxListItem) other).mOnebox);
+    }
+
     @Override
     public View createView(View convertView, ViewGroup parent) {
         View view;
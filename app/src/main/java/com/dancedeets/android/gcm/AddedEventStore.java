@@ -0,0 +1,158 @@
+package com.dancedeets.android.gcm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.models.FullEvent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The events added since the user last opened the app, which make up the EVENT_ADDED notification.
+ *
+ * We only keep what the inbox notification shows (id, title and start time), sorted by start time,
+ * and save it to SharedPreferences, so the notification still lists earlier events after the process dies between pushes.
+ * Safe to call from any thread.
+ */
+public class AddedEventStore {
+
+    private static final String LOG_TAG = "AddedEventStore";
+
+    private static final String PREFS_NAME = "added_events";
+    private static final String KEY_SUMMARIES = "summaries";
+
+    public static class Summary {
+        private final String mId;
+        private final String mTitle;
+        private final long mStartTime;
+
+        Summary(String id, String title, long startTime) {
+            mId = id;
+            mTitle = title;
+            mStartTime = startTime;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        public long getStartTimeLong() {
+            return mStartTime;
+        }
+
+        public Date getStartTime() {
+            return new Date(mStartTime);
+        }
+    }
+
+    private static final Comparator<Summary> START_TIME_COMPARATOR = new Comparator<Summary>() {
+        @Override
+        public int compare(Summary a, Summary b) {
+            // Would Long.compare, but it's not available until API 19, so just inline it here:
+            long lhs = a.mStartTime;
+            long rhs = b.mStartTime;
+            return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+        }
+    };
+
+    private static AddedEventStore instance;
+
+    private final SharedPreferences mPreferences;
+    // Guarded by this
+    private final List<Summary> mSummaries = new ArrayList<>();
+
+    AddedEventStore(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String saved = mPreferences.getString(KEY_SUMMARIES, null);
+        if (saved == null) {
+            return;
+        }
+        try {
+            JSONArray jsonSummaries = new JSONArray(saved);
+            for (int i = 0; i < jsonSummaries.length(); i++) {
+                JSONObject jsonSummary = jsonSummaries.getJSONObject(i);
+                mSummaries.add(new Summary(jsonSummary.getString("id"), jsonSummary.optString("title"), jsonSummary.getLong("start_time")));
+            }
+        } catch (JSONException e) {
+            Crashlytics.log(Log.ERROR, LOG_TAG, "Dropping unreadable added events: " + e);
+            mSummaries.clear();
+            mPreferences.edit().remove(KEY_SUMMARIES).apply();
+        }
+    }
+
+    public static AddedEventStore getInstance() {
+        return instance;
+    }
+
+    public static AddedEventStore createInstance(Context context) {
+        if (instance == null) {
+            instance = new AddedEventStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Adds the event in start time order, unless it's already listed.
+     *
+     * @return whether the list changed
+     */
+    public synchronized boolean add(FullEvent event) {
+        for (Summary summary : mSummaries) {
+            if (summary.mId.equals(event.getId())) {
+                return false;
+            }
+        }
+        Summary summary = new Summary(event.getId(), event.getTitle(), event.getStartTimeLong());
+        // Insert in start time order, rather than re-sorting the whole list.
+        int index = Collections.binarySearch(mSummaries, summary, START_TIME_COMPARATOR);
+        mSummaries.add(index < 0 ? -index - 1 : index, summary);
+        save();
+        return true;
+    }
+
+    /**
+     * A snapshot of the added events, sorted by start time.
+     */
+    public synchronized List<Summary> getSummaries() {
+        return new ArrayList<>(mSummaries);
+    }
+
+    public synchronized void clear() {
+        if (mSummaries.isEmpty()) {
+            return;
+        }
+        mSummaries.clear();
+        mPreferences.edit().remove(KEY_SUMMARIES).apply();
+    }
+
+    private void save() {
+        JSONArray jsonSummaries = new JSONArray();
+        try {
+            for (Summary summary : mSummaries) {
+                JSONObject jsonSummary = new JSONObject();
+                jsonSummary.put("id", summary.mId);
+                jsonSummary.put("title", summary.mTitle);
+                jsonSummary.put("start_time", summary.mStartTime);
+                jsonSummaries.put(jsonSummary);
+            }
+        } catch (JSONException e) {
+            // Only thrown for non-finite doubles, which we don't have.
+            throw new IllegalStateException(e);
+        }
+        mPreferences.edit().putString(KEY_SUMMARIES, jsonSummaries.toString()).apply();
+    }
+}
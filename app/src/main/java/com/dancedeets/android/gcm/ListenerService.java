@@ -23,29 +23,38 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
+import android.widget.ImageView;
 
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
 import com.crashlytics.android.Crashlytics;
 import com.dancedeets.android.DanceDeetsApi;
 import com.dancedeets.android.R;
 import com.dancedeets.android.SettingsActivity;
+import com.dancedeets.android.cache.EventRepository;
+import com.dancedeets.android.eventinfo.EventInfoFragment;
 import com.dancedeets.android.models.FullEvent;
 import com.dancedeets.android.util.VolleySingleton;
 import com.google.android.gms.gcm.GcmListenerService;
 
-import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ListenerService extends GcmListenerService {
 
@@ -66,9 +75,28 @@ public class ListenerService extends GcmListenerService {
 
     private static int EVENT_ADDED_NOTIFICATION_ID = -1;
 
-    // A list of event titles. Can be updated/read in many places, so need to synchronize.
-    // We use an ArrayList to make it easier to sort down below.
-    private final static ArrayList<FullEvent> addedEventTitles = new ArrayList<>();
+    // Whether a rebuild of the EVENT_ADDED notification is already scheduled. Guarded by addedEventLock.
+    private static boolean addedEventRebuildScheduled;
+    private static final Object addedEventLock = new Object();
+
+    // The server sends EVENT_ADDED pushes in bursts, so we wait this long to collect them into one notification update.
+    private static final long ADDED_EVENT_WINDOW_MS = 2000;
+
+    // All notification building (which blocks on image downloads) happens on this one worker thread,
+    // instead of a new thread per push. It exits when idle, since most of the time there are no pushes.
+    private static final ScheduledThreadPoolExecutor notificationExecutor = new ScheduledThreadPoolExecutor(1);
+    static {
+        notificationExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        notificationExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // How long we hold a notification waiting for its art. Past this, we post it without, and add the art when it arrives.
+    private static final long NOTIFICATION_ART_DEADLINE_MS = 2000;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final AtomicInteger pushesReceived = new AtomicInteger();
+    private static final AtomicInteger notificationsRendered = new AtomicInteger();
 
 
     public abstract class OnEventLoadedListener implements DanceDeetsApi.OnEventReceivedListener {
@@ -87,6 +115,7 @@ public class ListenerService extends GcmListenerService {
     @Override
     public void onMessageReceived(String from, Bundle data) {
         Log.i(LOG_TAG, "onMessageReceived");
+        pushesReceived.incrementAndGet();
         if (data.containsKey("mp_message")) {
             MixPanelReceiver receiver = new MixPanelReceiver();
             receiver.handleNotificationIntent(this, data);
@@ -118,7 +147,7 @@ public class ListenerService extends GcmListenerService {
                             loadEvent(data.getString("event_id"), new OnEventLoadedListener() {
                                 @Override
                                 public void onEventReceived(FullEvent event) {
-                                    ListenerService.this.sendAddedEventReminder(event);
+                                    ListenerService.this.queueAddedEventReminder(event);
                                 }
                             });
                         }
@@ -138,16 +167,18 @@ public class ListenerService extends GcmListenerService {
         // Ensure we initialize the singleton, as this code may run before the UI ever initializes...
         VolleySingleton.createInstance(this);
         // Grab all the relevant Event information in a way that lets us use our OOP FullEvent accessors.
+        // This is served from the EventRepository if the user has recently seen this event in their search results.
         DanceDeetsApi.getEvent(eventId, new DanceDeetsApi.OnEventReceivedListener() {
 
             @Override
             public void onEventReceived(final FullEvent event) {
-                new Thread(new Runnable() {
+                prefetchCover(event);
+                notificationExecutor.execute(new Runnable() {
                     @Override
                     public void run() {
                         eventReceivedListener.onEventReceived(event);
                     }
-                }).start();
+                });
             }
 
             @Override
@@ -158,23 +189,111 @@ public class ListenerService extends GcmListenerService {
         });
     }
 
-    protected Bitmap getBitmap(FullEvent event) {
+    /**
+     * Warms the disk cache with the cover EventInfoFragment will show, at the size it will show it,
+     * so that opening the notification doesn't wait on the network.
+     * (getEvent has already saved the event itself in the EventRepository, where EventInfoActivity looks first.)
+     */
+    private void prefetchCover(FullEvent event) {
+        int coverWidth = EventInfoFragment.getCoverWidth(getResources());
+        String coverUrl = EventInfoFragment.getCoverUrl(event, coverWidth);
+        if (coverUrl != null) {
+            // NetworkImageView asks for (width, 0) with its default scale type, since the cover's height is wrap_content.
+            VolleySingleton.getInstance().prefetchPhoto(coverUrl, coverWidth, 0, ImageView.ScaleType.FIT_CENTER);
+        }
+    }
+
+    /**
+     * Called on the notificationExecutor with art that missed getBitmap()'s deadline.
+     */
+    interface OnLateBitmapListener {
+        void onLateBitmap(Bitmap bitmap);
+    }
+
+    /**
+     * Loads the event's thumbnail through the shared thumbnail loader, so it comes from (and goes into)
+     * the same memory and disk caches as the app's own thumbnails, decoded down to the large icon size.
+     * Repeated reminders for the same event are then served without touching the network.
+     *
+     * Blocks for at most NOTIFICATION_ART_DEADLINE_MS. If the art arrives after that, this returns null,
+     * and lateListener gets the art once the caller has posted its notification.
+     */
+    protected Bitmap getBitmap(FullEvent event, final OnLateBitmapListener lateListener) {
         // Sadly, most flyers are not amenable to viewing in the 2:1 ratio wide image views
         // used for BigImageStyle notifications.
         // So instead, we load a small cover image for use for notification thumbnails.
-        String imageUrl = event.getThumbnailUrl();
-        Bitmap bitmap = null;
-        if (imageUrl != null) {
-            try {
-                // Download Image from URL
-                InputStream input = new java.net.URL(imageUrl).openStream();
-                // Decode Bitmap
-                bitmap = BitmapFactory.decodeStream(input);
-            } catch (Exception e) {
-                e.printStackTrace();
+        final String imageUrl = event.getThumbnailUrl();
+        if (imageUrl == null) {
+            return null;
+        }
+        final int width = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        final int height = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Bitmap> result = new AtomicReference<>();
+        final AtomicBoolean deadlinePassed = new AtomicBoolean();
+        // ImageLoader may only be used from the UI thread.
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                VolleySingleton.getInstance().getThumbnailLoader().get(imageUrl, new ImageLoader.ImageListener() {
+                    @Override
+                    public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+                        final Bitmap bitmap = response.getBitmap();
+                        if (bitmap == null) {
+                            // Not in memory, the real response comes later.
+                            return;
+                        }
+                        synchronized (deadlinePassed) {
+                            if (!deadlinePassed.get()) {
+                                result.set(bitmap);
+                                latch.countDown();
+                                return;
+                            }
+                        }
+                        Crashlytics.log(Log.INFO, LOG_TAG, "Notification art arrived late, updating notification: " + imageUrl);
+                        // Queued behind the task that posted the art-less notification, so we always update after it.
+                        notificationExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                lateListener.onLateBitmap(bitmap);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        Crashlytics.log(Log.ERROR, LOG_TAG, "Error loading notification art " + imageUrl + ": " + error);
+                        latch.countDown();
+                    }
+                }, width, height);
             }
+        });
+        try {
+            latch.await(NOTIFICATION_ART_DEADLINE_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return bitmap;
+        synchronized (deadlinePassed) {
+            deadlinePassed.set(true);
+            return result.get();
+        }
+    }
+
+    /**
+     * Re-posts the notification with its late art, without sounding or vibrating a second time.
+     */
+    private OnLateBitmapListener updateLargeIcon(final NotificationCompat.Builder notificationBuilder, final int notificationId) {
+        return new OnLateBitmapListener() {
+            @Override
+            public void onLateBitmap(Bitmap bitmap) {
+                NotificationManager notificationManager =
+                        (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                notificationBuilder
+                        .setLargeIcon(bitmap)
+                        .setOnlyAlertOnce(true);
+                notificationManager.notify(notificationId, notificationBuilder.build());
+            }
+        };
     }
 
     public void sendUpcomingEventReminder(FullEvent event) {
@@ -202,8 +321,12 @@ public class ListenerService extends GcmListenerService {
                         .bigText(event.getDescription()))
                 .setContentIntent(pendingIntent);
 
-        // This is a blocking operation
-        notificationBuilder.setLargeIcon(getBitmap(event));
+        // The notificationId is used for overwriting existing notifications,
+        // or ensuring separate notifications for separate events.
+        int notificationId = event.getId().hashCode();
+
+        // Blocks until the art arrives, or the deadline passes
+        notificationBuilder.setLargeIcon(getBitmap(event, updateLargeIcon(notificationBuilder, notificationId)));
 
         if (sharedPref.getBoolean(SettingsActivity.Notifications.SOUND, true)) {
             Uri defaultSoundUri = Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.happening);
@@ -222,57 +345,85 @@ public class ListenerService extends GcmListenerService {
         PendingIntent mapPendingIntent = PendingIntent.getActivity(ListenerService.this, 0 /* Request code */, mapIntent,
                 PendingIntent.FLAG_ONE_SHOT);
         notificationBuilder.addAction(R.drawable.ic_menu_map, getString(R.string.menu_view_map), mapPendingIntent);
-        // The notificationId is used for overwriting existing notifications,
-        // or ensuring separate notifications for separate events.
-        int notificationId = event.getId().hashCode();
         notificationManager.notify(notificationId, notificationBuilder.build());
+        notificationsRendered.incrementAndGet();
     }
 
-    // We synchronize access to edit/view the addedEventTitles list.
+    /**
+     * Called when the user opens the app, since they've now seen whatever the EVENT_ADDED notification was telling them about.
+     */
     public static void clearAddedEventTitles() {
-        synchronized (addedEventTitles) {
-            addedEventTitles.clear();
+        AddedEventStore store = AddedEventStore.getInstance();
+        if (store != null) {
+            store.clear();
         }
     }
 
+    /**
+     * How many notifications we've built, against how many pushes we've received, since the process started.
+     */
+    public static String getNotificationStats() {
+        return notificationsRendered.get() + " notifications rendered for " + pushesReceived.get() + " pushes received";
+    }
+
     public static DateFormat getMonthDayFormatter() {
         SimpleDateFormat sdf = (SimpleDateFormat) DateFormat.getDateInstance(DateFormat.MEDIUM);
         sdf.applyPattern(sdf.toPattern().replaceAll("[^\\p{Alpha}'年]*y+[^\\p{Alpha}'年]*", ""));
         return sdf;
     }
 
-    public synchronized void sendAddedEventReminder(FullEvent event) {
-        synchronized (addedEventTitles) {
-            innerSendAddedEventReminder(event);
+    /**
+     * Adds the event to the EVENT_ADDED notification, which is rebuilt once the current burst of pushes is over.
+     */
+    public void queueAddedEventReminder(FullEvent event) {
+        // A repeated push doesn't list the same event twice.
+        AddedEventStore.createInstance(getApplicationContext()).add(event);
+        synchronized (addedEventLock) {
+            if (addedEventRebuildScheduled) {
+                return;
+            }
+            addedEventRebuildScheduled = true;
         }
+        notificationExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (addedEventLock) {
+                    addedEventRebuildScheduled = false;
+                }
+                List<AddedEventStore.Summary> addedEvents = AddedEventStore.getInstance().getSummaries();
+                // The user may have opened the app (and cleared the list) while we waited.
+                if (!addedEvents.isEmpty()) {
+                    sendAddedEventReminder(addedEvents);
+                }
+            }
+        }, ADDED_EVENT_WINDOW_MS, TimeUnit.MILLISECONDS);
     }
 
-    // Only call this from synchrnoized methods, we separated it out to make the synchronization less indented
-    private void innerSendAddedEventReminder(FullEvent event) {
+    // Only call this from the notificationExecutor, with a snapshot of the AddedEventStore
+    private void sendAddedEventReminder(List<AddedEventStore.Summary> addedEvents) {
         NotificationManager notificationManager =
                 (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-        addedEventTitles.add(event);
-        Collections.sort(addedEventTitles, new Comparator<FullEvent>() {
-            @Override
-            public int compare(FullEvent a, FullEvent b) {
-                // Would Long.compare, but it's not available until API 19, so just inline it here:
-                long lhs = a.getStartTimeLong();
-                long rhs = b.getStartTimeLong();
-                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
-            }
-        });
+        AddedEventStore.Summary summary = addedEvents.get(0);
+        // The inbox only needs the summaries, but a lone event gets its description and art too.
+        // Its push just loaded it, so it's still in the EventRepository's memory.
+        FullEvent event = null;
+        if (addedEvents.size() == 1 && EventRepository.getInstance() != null) {
+            event = EventRepository.getInstance().getFromMemory(summary.getId());
+        }
+        // The notificationId is used for overwriting existing notifications,
+        // or ensuring separate notifications for separate events.
+        int notificationId = EVENT_ADDED_NOTIFICATION_ID;
 
         NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(ListenerService.this);
 
         Intent intent;
-        if (addedEventTitles.size() > 1) {
+        if (addedEvents.size() > 1) {
             // We have multiple events added, so just drop them on the main search page
             // But we don't use ACTION_SEARCH since we have nothing to specifically search for.
             intent = new Intent(Intent.ACTION_MAIN);
             intent.setPackage(getPackageName());
         } else {
-            intent = new Intent(Intent.ACTION_VIEW, Uri.parse(event.getUrl()));
+            intent = new Intent(Intent.ACTION_VIEW, Uri.parse(FullEvent.getUrl(summary.getId())));
             intent.setPackage(getPackageName());
         }
         // Ensure we open this URL using the DanceDeets app
@@ -288,19 +439,23 @@ public class ListenerService extends GcmListenerService {
                 .setCategory(NotificationCompat.CATEGORY_EMAIL)
                 .setContentIntent(pendingIntent);
 
-        if (addedEventTitles.size() > 1) {
+        if (addedEvents.size() > 1) {
             NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle()
                     .setBigContentTitle(getString(R.string.event_added));
             inboxStyle.setSummaryText(getString(R.string.see_all_events));
-            for (FullEvent eachEvent: addedEventTitles) {
+            DateFormat format = getMonthDayFormatter();
+            for (AddedEventStore.Summary eachEvent: addedEvents) {
                 Date eventDate = eachEvent.getStartTime();
-                DateFormat format = getMonthDayFormatter();
                 inboxStyle.addLine(format.format(eventDate) + ": " + eachEvent.getTitle());
             }
             notificationBuilder
                     .setSubText(getString(R.string.see_all_events))
-                    .setContentText(String.format(getResources().getQuantityString(R.plurals.n_events, addedEventTitles.size(), addedEventTitles.size())))
+                    .setContentText(String.format(getResources().getQuantityString(R.plurals.n_events, addedEvents.size(), addedEvents.size())))
                     .setStyle(inboxStyle);
+        } else if (event == null) {
+            notificationBuilder
+                    .setSubText(getString(R.string.open_event))
+                    .setContentText(summary.getTitle());
         } else {
             notificationBuilder
                     .setSubText(getString(R.string.open_event))
@@ -308,15 +463,27 @@ public class ListenerService extends GcmListenerService {
                     .setStyle(new NotificationCompat.BigTextStyle()
                             .bigText(event.getDescription()));
 
-            // This is a blocking operation
-            notificationBuilder.setLargeIcon(getBitmap(event));
+            final OnLateBitmapListener updateLargeIcon = updateLargeIcon(notificationBuilder, notificationId);
+            final String eventId = event.getId();
+            // Blocks until the art arrives, or the deadline passes
+            notificationBuilder.setLargeIcon(getBitmap(event, new OnLateBitmapListener() {
+                @Override
+                public void onLateBitmap(Bitmap bitmap) {
+                    // Don't replace a newer rebuild (or a cleared list) with this single event.
+                    List<AddedEventStore.Summary> currentEvents = AddedEventStore.getInstance().getSummaries();
+                    if (currentEvents.size() != 1 || !currentEvents.get(0).getId().equals(eventId)) {
+                        return;
+                    }
+                    updateLargeIcon.onLateBitmap(bitmap);
+                }
+            }));
         }
 
         // TODO: Maybe add an "RSVP as Going" action?
 
-        // The notificationId is used for overwriting existing notifications,
-        // or ensuring separate notifications for separate events.
-        int notificationId = EVENT_ADDED_NOTIFICATION_ID;
         notificationManager.notify(notificationId, notificationBuilder.build());
+        int rendered = notificationsRendered.incrementAndGet();
+        Crashlytics.log(Log.INFO, LOG_TAG, "Rebuilt added events notification with " + addedEvents.size() + " events, "
+                + rendered + " notifications rendered for " + pushesReceived.get() + " pushes received");
     }
 }
@@ -14,13 +14,12 @@ import java.util.Locale;
 /**
  * Created by lambert on 2014/11/26.
  */
-public class FetchAddress implements FetchLocation.LocationListener {
+public class FetchAddress implements LocationProvider.LocationListener {
 
     private static final String LOG_TAG = "FetchLocation";
 
     private Geocoder mGeocoder;
 
-    private FetchLocation mFetchLocation;
     private Location mLocation;
     private ReverseGeocodeTask mReverseGeocodeTask;
     private AddressListener mAddressListener;
@@ -30,7 +29,6 @@ public class FetchAddress implements FetchLocation.LocationListener {
     }
 
     public FetchAddress() {
-        mFetchLocation = new FetchLocation();
     }
 
     public static String formatAddress(Address address) {
@@ -90,7 +88,7 @@ public class FetchAddress implements FetchLocation.LocationListener {
         }
     }
 
-    // FetchLocation should not store this Activity beyond the lifetime of the Activity.
+    // FetchAddress should not store this Activity beyond the lifetime of the Activity.
     // So we can safely use it to initialize variables here, but that's it.
     // If we do want to store it (like in FetchLocationWithDialog),
     // then we need to make sure the local reference gets cleaned up appropriately.
@@ -99,13 +97,14 @@ public class FetchAddress implements FetchLocation.LocationListener {
         mAddressListener = addressListener;
         // Connect the client.
         mGeocoder = new Geocoder(activity, Locale.getDefault());
-        mFetchLocation.onStart(activity, this);
+        // Shares the location connection with whoever else in the process is asking.
+        LocationProvider.getInstance().requestLocation(this);
     }
 
 
     public void onStop() {
         Log.i(LOG_TAG, "onStop");
-        mFetchLocation.onStop();
+        LocationProvider.getInstance().cancelRequest(this);
         mAddressListener = null;
         if (mReverseGeocodeTask != null) {
             mReverseGeocodeTask.cancel(true);
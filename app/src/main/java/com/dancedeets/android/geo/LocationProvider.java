@@ -0,0 +1,205 @@
+package com.dancedeets.android.geo;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.FusedLocationProviderApi;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The one GoogleApiClient connection for location, shared by every activity in the process.
+ *
+ * Each requestLocation() gets a single answer: the last fix we fetched if it's recent enough,
+ * or else whatever the fused provider has once we're connected, which goes to everyone waiting at the time.
+ * We stay connected for a while after the last request, so moving between activities doesn't reconnect.
+ * Only use this from the UI thread.
+ */
+public class LocationProvider implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String LOG_TAG = "LocationProvider";
+
+    // The user doesn't move far in this long, at least not as far as a city-level search or ad targeting cares.
+    private static final long MAX_LOCATION_AGE_MS = 5 * 60 * 1000;
+
+    private static final long DISCONNECT_DELAY_MS = 60 * 1000;
+
+    private static LocationProvider instance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Package-private, so tests can swap in MockGoogleApiClient and MockLocationProviderApi
+    GoogleApiClient mGoogleApiClient;
+    FusedLocationProviderApi mLocationProviderApi = LocationServices.FusedLocationApi;
+
+    private final List<LocationListener> mPendingListeners = new ArrayList<>();
+
+    private Location mLastLocation;
+    // When we fetched mLastLocation, from SystemClock.elapsedRealtime
+    private long mLastLocationTime;
+    private boolean mHasLastLocation;
+
+    private int mConnectCount;
+    private int mCachedCount;
+
+    public interface LocationListener {
+        /**
+         * @param location may be null, if Play Services or a location fix are unavailable
+         */
+        void onLocationFound(Location location);
+    }
+
+    private final Runnable mDisconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mGoogleApiClient != null && mPendingListeners.isEmpty()) {
+                Crashlytics.log(Log.INFO, LOG_TAG, "Idle, disconnecting");
+                mGoogleApiClient.disconnect();
+            }
+        }
+    };
+
+    LocationProvider(Context context) {
+        mContext = context;
+    }
+
+    public static LocationProvider getInstance() {
+        return instance;
+    }
+
+    public static LocationProvider createInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationProvider(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Calls listener once with our location, unless cancelRequest() is called first.
+     */
+    public void requestLocation(final LocationListener listener) {
+        if (mPendingListeners.contains(listener)) {
+            return;
+        }
+        mMainHandler.removeCallbacks(mDisconnectRunnable);
+        if (hasRecentLocation()) {
+            mCachedCount++;
+            mPendingListeners.add(listener);
+            final Location location = mLastLocation;
+            // Still asynchronous, like a fresh fetch, so callers see one behavior.
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Only if it wasn't cancelled in the meantime
+                    if (mPendingListeners.remove(listener)) {
+                        listener.onLocationFound(location);
+                    }
+                }
+            });
+            scheduleDisconnect();
+            return;
+        }
+        mPendingListeners.add(listener);
+        if (mGoogleApiClient == null) {
+            if (!areGooglePlayServicesAvailable()) {
+                Crashlytics.log(Log.ERROR, LOG_TAG, "Unable to connect to Google Play Services");
+                deliverLocation(null);
+                return;
+            }
+            mGoogleApiClient = new GoogleApiClient.Builder(mContext)
+                    .addApi(LocationServices.API)
+                    .addConnectionCallbacks(this)
+                    .addOnConnectionFailedListener(this)
+                    .build();
+        }
+        if (mGoogleApiClient.isConnected()) {
+            fetchLocation();
+        } else if (!mGoogleApiClient.isConnecting()) {
+            mConnectCount++;
+            mGoogleApiClient.connect();
+        }
+    }
+
+    /**
+     * Forgets listener, ie when its activity stops before the location arrives.
+     */
+    public void cancelRequest(LocationListener listener) {
+        mPendingListeners.remove(listener);
+        if (mPendingListeners.isEmpty()) {
+            scheduleDisconnect();
+        }
+    }
+
+    private boolean hasRecentLocation() {
+        return mHasLastLocation && SystemClock.elapsedRealtime() - mLastLocationTime < MAX_LOCATION_AGE_MS;
+    }
+
+    protected boolean areGooglePlayServicesAvailable() {
+        return GooglePlayServicesUtil.isGooglePlayServicesAvailable(mContext) == ConnectionResult.SUCCESS;
+    }
+
+    private void fetchLocation() {
+        Location location = mLocationProviderApi.getLastLocation(mGoogleApiClient);
+        Crashlytics.log(Log.INFO, LOG_TAG, "Fetched location " + location + " for " + mPendingListeners.size() + " listeners");
+        // A null location (ie, location services are off) isn't worth remembering, since the user may turn them on.
+        if (location != null) {
+            mLastLocation = location;
+            mLastLocationTime = SystemClock.elapsedRealtime();
+            mHasLastLocation = true;
+        }
+        deliverLocation(location);
+    }
+
+    private void deliverLocation(Location location) {
+        // A copy, since listeners may request again, or cancel one another.
+        List<LocationListener> listeners = new ArrayList<>(mPendingListeners);
+        mPendingListeners.clear();
+        for (LocationListener listener : listeners) {
+            listener.onLocationFound(location);
+        }
+        scheduleDisconnect();
+    }
+
+    private void scheduleDisconnect() {
+        mMainHandler.removeCallbacks(mDisconnectRunnable);
+        mMainHandler.postDelayed(mDisconnectRunnable, DISCONNECT_DELAY_MS);
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        Crashlytics.log(Log.INFO, LOG_TAG, "GoogleApiClient.onConnected: " + bundle);
+        if (!mPendingListeners.isEmpty()) {
+            fetchLocation();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        Crashlytics.log(Log.INFO, LOG_TAG, "GoogleApiClient.onConnectionSuspended: " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Crashlytics.log(Log.ERROR, LOG_TAG, "GoogleApiClient.onConnectionFailed: " + connectionResult);
+        deliverLocation(null);
+    }
+
+    /**
+     * How many requests we answered from the cached fix, against how many times we had to connect.
+     */
+    public String getStats() {
+        return mCachedCount + " requests served from cache, " + mConnectCount + " connections";
+    }
+}
@@ -2,11 +2,13 @@ package com.dancedeets.android.models;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,6 +32,38 @@ public class CoverData implements Parcelable, Serializable {
         return coverData;
     }
 
+    static public CoverData parse(JsonReader reader) throws IOException, JSONException {
+        CoverData coverData = new CoverData();
+        JSONException imageError = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("images")) {
+                coverData.mCovers = new ArrayList<CoverImage>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // Keep reading, so we only throw once we're past our own object.
+                    try {
+                        coverData.mCovers.add(CoverImage.parse(reader));
+                    } catch (JSONException e) {
+                        imageError = e;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (imageError != null) {
+            throw imageError;
+        }
+        if (coverData.mCovers == null || coverData.mCovers.isEmpty()) {
+            throw new JSONException("Cover missing images");
+        }
+        return coverData;
+    }
+
     public CoverImage getSmallestCoverLargerThan(int width, int height) {
         CoverImage bestCover = null;
         for (CoverImage cover : mCovers) {
@@ -71,7 +105,7 @@ public class CoverData implements Parcelable, Serializable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeList(mCovers);
+        dest.writeTypedList(mCovers);
     }
 
     public static final Parcelable.Creator<CoverData> CREATOR
@@ -88,6 +122,6 @@ public class CoverData implements Parcelable, Serializable {
 
     @SuppressWarnings("unchecked")
     private CoverData(Parcel in) {
-        mCovers = in.readArrayList(CoverImage.class.getClassLoader());
+        mCovers = in.createTypedArrayList(CoverImage.CREATOR);
     }
 }
@@ -2,10 +2,12 @@ package com.dancedeets.android.models;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -27,6 +29,28 @@ public class CoverImage implements Parcelable, Serializable {
         return coverImage;
     }
 
+    static public CoverImage parse(JsonReader reader) throws IOException, JSONException {
+        CoverImage coverImage = new CoverImage();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("source")) {
+                coverImage.mSourceUrl = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("width")) {
+                coverImage.mWidth = reader.nextInt();
+            } else if (name.equals("height")) {
+                coverImage.mHeight = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (coverImage.mSourceUrl == null) {
+            throw new JSONException("Cover image missing source");
+        }
+        return coverImage;
+    }
+
     public String getSourceUrl() {
         return mSourceUrl;
     }
@@ -0,0 +1,423 @@
+package com.dancedeets.android.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Our on-disk format for lists of FullEvents (and the OneboxLinks that came with them).
+ *
+ * Unlike Parcel.marshall(), this format is ours, so it doesn't change underneath us with platform versions.
+ * Every string is stored once in a shared string table, so repeated cities, countries and categories are cheap.
+ * Events are length-prefixed through an offset table, so getEvent(n) decodes just that one event.
+ *
+ * Layout (all ints big-endian):
+ * [magic][version][timestamp]
+ * [string count][string offsets 0..count][utf-8 string bytes]
+ * [event count][event offsets 0..count][event bytes]
+ * [onebox count][onebox title/url string refs]
+ * [metadata count][metadata key/value string refs]
+ *
+ * The metadata holds whatever the caches need to keep alongside the events, like the HTTP validators.
+ */
+public class EventSnapshot {
+
+    private static final int MAGIC = 0x44444553; // "DDES"
+
+    // Bump this whenever the layout below changes, so we ignore old files.
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int NULL_STRING = -1;
+
+    private static final int FLAG_ALL_DAY = 1;
+    private static final int FLAG_END_TIME = 1 << 1;
+    private static final int FLAG_COVER = 1 << 2;
+    private static final int FLAG_VENUE = 1 << 3;
+    private static final int FLAG_LAT_LONG = 1 << 4;
+
+    private final ByteBuffer mBuffer;
+    private final long mTimestamp;
+
+    private final int mStringOffsetsStart;
+    private final int mStringDataStart;
+    private final String[] mStrings;
+
+    private final int mEventOffsetsStart;
+    private final int mEventDataStart;
+    private final int mEventCount;
+
+    private final int mOneboxStart;
+    private final int mMetadataStart;
+
+    private EventSnapshot(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        int position = 0;
+        if (buffer.limit() < 16 || buffer.getInt(position) != MAGIC) {
+            throw new IOException("Not an event snapshot");
+        }
+        position += 8;
+        mTimestamp = buffer.getLong(position);
+        position += 8;
+
+        int stringCount = readCount(position);
+        mStrings = new String[stringCount];
+        mStringOffsetsStart = position + 4;
+        mStringDataStart = mStringOffsetsStart + (stringCount + 1) * 4;
+        position = mStringDataStart + buffer.getInt(mStringOffsetsStart + stringCount * 4);
+
+        mEventCount = readCount(position);
+        mEventOffsetsStart = position + 4;
+        mEventDataStart = mEventOffsetsStart + (mEventCount + 1) * 4;
+        position = mEventDataStart + buffer.getInt(mEventOffsetsStart + mEventCount * 4);
+
+        mOneboxStart = position;
+        int oneboxCount = readCount(mOneboxStart);
+        position = mOneboxStart + 4 + oneboxCount * 8;
+
+        mMetadataStart = position;
+        if (position + 4 > buffer.limit() || position + 4 + readCount(position) * 8L > buffer.limit()) {
+            throw new IOException("Corrupt event snapshot, truncated metadata at " + position);
+        }
+    }
+
+    private int readCount(int position) throws IOException {
+        int count = mBuffer.getInt(position);
+        if (count < 0 || position + 4 + count * 4L > mBuffer.limit()) {
+            throw new IOException("Corrupt event snapshot, count " + count + " at " + position);
+        }
+        return count;
+    }
+
+    /**
+     * Returns null if the bytes are from an older format version.
+     */
+    public static EventSnapshot read(byte[] bytes) throws IOException {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Memory-maps the file, reading only its header. Returns null if the file is missing or from an older format version.
+     */
+    public static EventSnapshot open(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after we close the file.
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static EventSnapshot read(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() >= 8 && buffer.getInt(0) == MAGIC && buffer.getInt(4) != FORMAT_VERSION) {
+            return null;
+        }
+        return new EventSnapshot(buffer);
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public FullEvent getEvent(int index) {
+        if (index < 0 || index >= mEventCount) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mEventCount);
+        }
+        ByteBuffer in = mBuffer.duplicate();
+        in.position(mEventDataStart + mBuffer.getInt(mEventOffsetsStart + index * 4));
+        return readEvent(in);
+    }
+
+    public List<FullEvent> getEventList() {
+        List<FullEvent> eventList = new ArrayList<>(mEventCount);
+        for (int i = 0; i < mEventCount; i++) {
+            eventList.add(getEvent(i));
+        }
+        return eventList;
+    }
+
+    public List<OneboxLink> getOneboxList() {
+        ByteBuffer in = mBuffer.duplicate();
+        in.position(mOneboxStart);
+        int count = in.getInt();
+        List<OneboxLink> oneboxList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            OneboxLink onebox = new OneboxLink();
+            onebox.mTitle = readString(in);
+            onebox.mUrl = readString(in);
+            oneboxList.add(onebox);
+        }
+        return oneboxList;
+    }
+
+    /**
+     * Returns the metadata value stored under key, or null if there is none.
+     */
+    public String getMetadata(String key) {
+        ByteBuffer in = mBuffer.duplicate();
+        in.position(mMetadataStart);
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String entryKey = readString(in);
+            String value = readString(in);
+            if (key.equals(entryKey)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private String readString(ByteBuffer in) {
+        int index = in.getInt();
+        if (index == NULL_STRING) {
+            return null;
+        }
+        // Strings are shared between events, so decode each one once.
+        if (mStrings[index] == null) {
+            int start = mBuffer.getInt(mStringOffsetsStart + index * 4);
+            int end = mBuffer.getInt(mStringOffsetsStart + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer slice = mBuffer.duplicate();
+            slice.position(mStringDataStart + start);
+            slice.get(bytes);
+            mStrings[index] = new String(bytes, UTF_8);
+        }
+        return mStrings[index];
+    }
+
+    private List<String> readStringList(ByteBuffer in) {
+        int count = in.getInt();
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(readString(in));
+        }
+        return list;
+    }
+
+    private FullEvent readEvent(ByteBuffer in) {
+        FullEvent event = new FullEvent();
+        event.mId = readString(in);
+        event.mTitle = readString(in);
+        event.mDescription = readString(in);
+        int flags = in.get();
+        event.mAllDayEvent = (flags & FLAG_ALL_DAY) != 0;
+        event.mStartTime = new Date(in.getLong());
+        if ((flags & FLAG_END_TIME) != 0) {
+            event.mEndTime = new Date(in.getLong());
+        }
+        event.mImageUrl = readString(in);
+        event.mCoverUrl = readString(in);
+
+        if ((flags & FLAG_COVER) != 0) {
+            CoverData coverData = new CoverData();
+            int coverCount = in.getInt();
+            coverData.mCovers = new ArrayList<>(coverCount);
+            for (int i = 0; i < coverCount; i++) {
+                CoverImage cover = new CoverImage();
+                cover.mSourceUrl = readString(in);
+                cover.mWidth = in.getInt();
+                cover.mHeight = in.getInt();
+                coverData.mCovers.add(cover);
+            }
+            event.mCoverData = coverData;
+        }
+
+        if ((flags & FLAG_VENUE) != 0) {
+            Venue venue = new Venue();
+            venue.mId = readString(in);
+            venue.mName = readString(in);
+            venue.mStreet = readString(in);
+            venue.mCity = readString(in);
+            venue.mState = readString(in);
+            venue.mZip = readString(in);
+            venue.mCountry = readString(in);
+            if ((flags & FLAG_LAT_LONG) != 0) {
+                venue.mLatLong = new LatLong(in.getDouble(), in.getDouble());
+            }
+            event.mVenue = venue;
+        }
+
+        int adminCount = in.getInt();
+        event.mAdminList = new ArrayList<>(adminCount);
+        for (int i = 0; i < adminCount; i++) {
+            NamedPerson admin = new NamedPerson();
+            admin.mId = readString(in);
+            admin.mName = readString(in);
+            event.mAdminList.add(admin);
+        }
+        event.mCategories = readStringList(in);
+        return event;
+    }
+
+    /**
+     * Collects the string table while the events are being encoded.
+     */
+    private static class Writer {
+        private final Map<String, Integer> mStringIndex = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+
+        void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_STRING);
+                return;
+            }
+            Integer index = mStringIndex.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(value);
+                mStringIndex.put(value, index);
+            }
+            out.writeInt(index);
+        }
+
+        void writeEvent(DataOutputStream out, FullEvent event) throws IOException {
+            writeString(out, event.mId);
+            writeString(out, event.mTitle);
+            writeString(out, event.mDescription);
+            Venue venue = event.mVenue;
+            int flags = (event.mAllDayEvent ? FLAG_ALL_DAY : 0) |
+                    (event.mEndTime != null ? FLAG_END_TIME : 0) |
+                    (event.mCoverData != null ? FLAG_COVER : 0) |
+                    (venue != null ? FLAG_VENUE : 0) |
+                    (venue != null && venue.mLatLong != null ? FLAG_LAT_LONG : 0);
+            out.writeByte(flags);
+            out.writeLong(event.mStartTime != null ? event.mStartTime.getTime() : 0);
+            if (event.mEndTime != null) {
+                out.writeLong(event.mEndTime.getTime());
+            }
+            writeString(out, event.mImageUrl);
+            writeString(out, event.mCoverUrl);
+
+            if (event.mCoverData != null) {
+                out.writeInt(event.mCoverData.mCovers.size());
+                for (CoverImage cover : event.mCoverData.mCovers) {
+                    writeString(out, cover.mSourceUrl);
+                    out.writeInt(cover.mWidth);
+                    out.writeInt(cover.mHeight);
+                }
+            }
+
+            if (venue != null) {
+                writeString(out, venue.mId);
+                writeString(out, venue.mName);
+                writeString(out, venue.mStreet);
+                writeString(out, venue.mCity);
+                writeString(out, venue.mState);
+                writeString(out, venue.mZip);
+                writeString(out, venue.mCountry);
+                if (venue.mLatLong != null) {
+                    out.writeDouble(venue.mLatLong.getLatitude());
+                    out.writeDouble(venue.mLatLong.getLongitude());
+                }
+            }
+
+            out.writeInt(event.mAdminList.size());
+            for (NamedPerson admin : event.mAdminList) {
+                writeString(out, admin.mId);
+                writeString(out, admin.mName);
+            }
+            out.writeInt(event.mCategories.size());
+            for (String category : event.mCategories) {
+                writeString(out, category);
+            }
+        }
+    }
+
+    public static byte[] write(long timestamp, List<FullEvent> eventList, List<OneboxLink> oneboxList) {
+        return write(timestamp, eventList, oneboxList, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param metadata strings to keep alongside the events, for getMetadata(). Null values are skipped.
+     */
+    public static byte[] write(long timestamp, List<FullEvent> eventList, List<OneboxLink> oneboxList, Map<String, String> metadata) {
+        try {
+            Writer writer = new Writer();
+
+            // Events, oneboxes and metadata first, since they fill in the string table.
+            ByteArrayOutputStream eventBytes = new ByteArrayOutputStream();
+            DataOutputStream eventOut = new DataOutputStream(eventBytes);
+            int[] eventOffsets = new int[eventList.size() + 1];
+            for (int i = 0; i < eventList.size(); i++) {
+                eventOffsets[i] = eventOut.size();
+                writer.writeEvent(eventOut, eventList.get(i));
+            }
+            eventOffsets[eventList.size()] = eventOut.size();
+
+            ByteArrayOutputStream oneboxBytes = new ByteArrayOutputStream();
+            DataOutputStream oneboxOut = new DataOutputStream(oneboxBytes);
+            oneboxOut.writeInt(oneboxList.size());
+            for (OneboxLink onebox : oneboxList) {
+                writer.writeString(oneboxOut, onebox.mTitle);
+                writer.writeString(oneboxOut, onebox.mUrl);
+            }
+            int metadataCount = 0;
+            for (String value : metadata.values()) {
+                if (value != null) {
+                    metadataCount++;
+                }
+            }
+            oneboxOut.writeInt(metadataCount);
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                if (entry.getValue() != null) {
+                    writer.writeString(oneboxOut, entry.getKey());
+                    writer.writeString(oneboxOut, entry.getValue());
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(eventBytes.size() * 2);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(timestamp);
+
+            List<byte[]> encodedStrings = new ArrayList<>(writer.mStrings.size());
+            for (String string : writer.mStrings) {
+                encodedStrings.add(string.getBytes(UTF_8));
+            }
+            out.writeInt(encodedStrings.size());
+            int stringOffset = 0;
+            for (byte[] encodedString : encodedStrings) {
+                out.writeInt(stringOffset);
+                stringOffset += encodedString.length;
+            }
+            out.writeInt(stringOffset);
+            for (byte[] encodedString : encodedStrings) {
+                out.write(encodedString);
+            }
+
+            out.writeInt(eventList.size());
+            for (int eventOffset : eventOffsets) {
+                out.writeInt(eventOffset);
+            }
+            eventBytes.writeTo(out);
+            oneboxBytes.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // We only ever write to memory.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,15 +4,17 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
+
+import com.dancedeets.android.util.IsoDateParser;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -28,10 +30,6 @@ public class FullEvent implements Parcelable, Serializable {
     static DateFormat localizedDateTimeFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
     static DateFormat localizedTimeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
 
-    static DateFormat isoDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    static DateFormat isoDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    static DateFormat isoDateTimeFormatWithTZ = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-
     protected String mId;
 
 
@@ -59,36 +57,9 @@ public class FullEvent implements Parcelable, Serializable {
         event.mTitle = jsonEvent.getString("name");
         event.mDescription = jsonEvent.getString("description");
 
-        String startTimeString = jsonEvent.getString("start_time");
-        try {
-            event.mStartTime = isoDateTimeFormatWithTZ.parse(startTimeString);
-        } catch (ParseException e1) {
-            try {
-                event.mStartTime = isoDateTimeFormat.parse(startTimeString);
-            } catch (ParseException e2) {
-                try {
-                    event.mStartTime = isoDateFormat.parse(startTimeString);
-                    event.mAllDayEvent = true;
-                } catch (ParseException e3) {
-                    throw new JSONException("ParseException on start_time string: " + startTimeString);
-                }
-            }
-        }
+        event.setStartTime(jsonEvent.getString("start_time"));
         if (!jsonEvent.isNull("end_time")) {
-            String endTimeString = jsonEvent.getString("end_time");
-            try {
-                event.mEndTime = isoDateTimeFormatWithTZ.parse(endTimeString);
-            } catch (ParseException e) {
-                try {
-                    event.mEndTime = isoDateTimeFormat.parse(endTimeString);
-                } catch (ParseException e2) {
-                    try {
-                        event.mEndTime = isoDateFormat.parse(endTimeString);
-                    } catch (ParseException e3) {
-                        throw new JSONException("ParseException on end_time string: " + endTimeString);
-                    }
-                }
-            }
+            event.setEndTime(jsonEvent.getString("end_time"));
         }
 
         if (!jsonEvent.isNull("cover")) {
@@ -120,18 +91,138 @@ public class FullEvent implements Parcelable, Serializable {
             JSONArray jsonCategories = jsonEvent.getJSONObject("annotations").getJSONArray("categories");
             event.mCategories = new ArrayList<>(jsonCategories.length());
             for (int i = 0; i < jsonCategories.length(); i++) {
-                event.mCategories.add(jsonCategories.getString(i));
+                event.mCategories.add(StringPool.intern(jsonCategories.getString(i)));
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Streaming variant of parse(JSONObject), used when decoding search results off the UI thread.
+     * The reader must be positioned at the start of the event object,
+     * and is left just past its end, even when we throw a JSONException.
+     */
+    static public FullEvent parse(JsonReader reader) throws IOException, JSONException {
+        FullEvent event = new FullEvent();
+        String startTimeString = null;
+        String endTimeString = null;
+        // Thrown by the cover or admin parsers, which we hold onto until we've read past the event.
+        JSONException nestedError = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                event.mId = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("name")) {
+                event.mTitle = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("description")) {
+                event.mDescription = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("start_time")) {
+                startTimeString = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("end_time")) {
+                endTimeString = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("picture")) {
+                event.mImageUrl = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("cover")) {
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    try {
+                        event.mCoverData = CoverData.parse(reader);
+                        event.mCoverUrl = event.mCoverData.getLargestCover().getSourceUrl();
+                    } catch (JSONException e) {
+                        nestedError = e;
+                    }
+                }
+            } else if (name.equals("venue")) {
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    event.mVenue = Venue.parse(reader);
+                }
+            } else if (name.equals("admins")) {
+                event.mAdminList = new ArrayList<>();
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        try {
+                            event.mAdminList.add(NamedPerson.parse(reader));
+                        } catch (JSONException e) {
+                            nestedError = e;
+                        }
+                    }
+                    reader.endArray();
+                }
+            } else if (name.equals("annotations")) {
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("categories") && !JsonReaderUtil.skipNull(reader)) {
+                            event.mCategories = new ArrayList<>();
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                event.mCategories.add(StringPool.intern(reader.nextString()));
+                            }
+                            reader.endArray();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+            } else {
+                reader.skipValue();
             }
         }
+        reader.endObject();
+
+        // We only validate once the whole object has been consumed,
+        // so a bad event leaves the reader positioned correctly for the next one.
+        // The nested parsers follow the same rule, and their errors wait until here.
+        if (nestedError != null) {
+            throw nestedError;
+        }
+        // The same fields parse(JSONObject) requires, so both paths accept the same events.
+        if (event.mId == null || event.mTitle == null || event.mDescription == null || startTimeString == null
+                || event.mImageUrl == null || event.mVenue == null) {
+            throw new JSONException("Event " + event.mId + " missing required fields");
+        }
+        event.setStartTime(startTimeString);
+        if (endTimeString != null) {
+            event.setEndTime(endTimeString);
+        }
+        if (event.mAdminList == null) {
+            event.mAdminList = new ArrayList<>();
+        }
+        if (event.mCategories == null) {
+            event.mCategories = new ArrayList<>();
+        }
         return event;
     }
 
+    private void setStartTime(String startTimeString) throws JSONException {
+        long startTime = IsoDateParser.parse(startTimeString);
+        if (startTime == IsoDateParser.INVALID) {
+            throw new JSONException("Could not parse start_time string: " + startTimeString);
+        }
+        mStartTime = new Date(startTime);
+        mAllDayEvent = IsoDateParser.isDateOnly(startTimeString);
+    }
+
+    private void setEndTime(String endTimeString) throws JSONException {
+        long endTime = IsoDateParser.parse(endTimeString);
+        if (endTime == IsoDateParser.INVALID) {
+            throw new JSONException("Could not parse end_time string: " + endTimeString);
+        }
+        mEndTime = new Date(endTime);
+    }
+
     public String getId() {
         return mId;
     }
 
     public String getUrl() {
-        return "http://www.dancedeets.com/events/" + getId() + "/";
+        return getUrl(getId());
+    }
+
+    public static String getUrl(String id) {
+        return "http://www.dancedeets.com/events/" + id + "/";
     }
 
     public String getFacebookUrl() {
@@ -154,6 +245,10 @@ public class FullEvent implements Parcelable, Serializable {
         return mStartTime;
     }
 
+    public boolean isAllDayEvent() {
+        return mAllDayEvent;
+    }
+
     public long getStartTimeLong() {
         return mStartTime.getTime();
     }
@@ -315,13 +410,13 @@ public class FullEvent implements Parcelable, Serializable {
         if (o == this) return true;
         if (((Object)this).getClass() != o.getClass()) return false;
         FullEvent other = (FullEvent)o;
-        return (super.equals(o) &&
+        return (mId.equals(other.mId) &&
                 mTitle.equals(other.mTitle) &&
                 mDescription.equals(other.mDescription) &&
                 (mImageUrl == null ? other.mImageUrl == null : mImageUrl.equals(other.mImageUrl)) &&
                 (mCoverUrl == null ? other.mCoverUrl == null : mCoverUrl.equals(other.mCoverUrl)) &&
-                mStartTime == other.mStartTime &&
-                mEndTime == other.mEndTime &&
+                (mStartTime == null ? other.mStartTime == null : mStartTime.equals(other.mStartTime)) &&
+                (mEndTime == null ? other.mEndTime == null : mEndTime.equals(other.mEndTime)) &&
                 mAllDayEvent == other.mAllDayEvent &&
                 (mCoverData == null ? other.mCoverData == null : mCoverData.equals(other.mCoverData)) &&
                 mVenue.equals(other.mVenue) &&
@@ -348,8 +443,9 @@ public class FullEvent implements Parcelable, Serializable {
         dest.writeString(mCoverUrl);
         dest.writeParcelable(mCoverData, 0);
         dest.writeParcelable(mVenue, 0);
-        dest.writeList(mAdminList);
-        dest.writeList(mCategories);
+        // Typed lists, so we don't write out a class name for every element.
+        dest.writeTypedList(mAdminList);
+        dest.writeStringList(mCategories);
     }
 
     public static final Parcelable.Creator<FullEvent> CREATOR
@@ -380,7 +476,9 @@ public class FullEvent implements Parcelable, Serializable {
         mTitle = in.readString();
         mDescription = in.readString();
         mStartTime = new Date(in.readLong());
-        mEndTime = new Date(in.readLong());
+        long endTime = in.readLong();
+        // writeToParcel stores a missing end time as 0
+        mEndTime = endTime != 0 ? new Date(endTime) : null;
         mAllDayEvent = in.readByte() != 0;
 
         mImageUrl = in.readString();
@@ -388,6 +486,6 @@ public class FullEvent implements Parcelable, Serializable {
 
         mCoverData = in.readParcelable(CoverData.class.getClassLoader());
         mVenue = in.readParcelable(Venue.class.getClassLoader());
-        mAdminList = in.readArrayList(NamedPerson.class.getClassLoader());
-        mCategories = in.readArrayList(String.class.getClassLoader());
+        mAdminList = in.createTypedArrayList(NamedPerson.CREATOR);
+        mCategories = in.createStringArrayList();
     }}
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.dancedeets.android.models;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Helpers for the streaming parse() variants on our models,
+ * which read straight off a JsonReader instead of a fully-built JSONObject tree.
+ */
+public class JsonReaderUtil {
+
+    public static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Like nextStringOrNull, but returns the StringPool copy, for values that repeat across many events.
+     */
+    public static String nextInternedStringOrNull(JsonReader reader) throws IOException {
+        return StringPool.intern(nextStringOrNull(reader));
+    }
+
+    /**
+     * Returns true if the next value is null (and consumes it), so callers can skip parsing an optional object.
+     */
+    public static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
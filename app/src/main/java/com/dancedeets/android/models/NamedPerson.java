@@ -2,10 +2,12 @@ package com.dancedeets.android.models;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -21,8 +23,28 @@ public class NamedPerson implements Parcelable,Serializable {
 
     static public NamedPerson parse(JSONObject jsonObject) throws JSONException {
         NamedPerson namedPerson = new NamedPerson();
-        namedPerson.mId = jsonObject.getString("id");
-        namedPerson.mName = jsonObject.getString("name");
+        namedPerson.mId = StringPool.intern(jsonObject.getString("id"));
+        namedPerson.mName = StringPool.intern(jsonObject.getString("name"));
+        return namedPerson;
+    }
+
+    static public NamedPerson parse(JsonReader reader) throws IOException, JSONException {
+        NamedPerson namedPerson = new NamedPerson();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                namedPerson.mId = JsonReaderUtil.nextInternedStringOrNull(reader);
+            } else if (name.equals("name")) {
+                namedPerson.mName = JsonReaderUtil.nextInternedStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (namedPerson.mId == null || namedPerson.mName == null) {
+            throw new JSONException("Admin missing id or name");
+        }
         return namedPerson;
     }
 
@@ -3,10 +3,12 @@ package com.dancedeets.android.models;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -27,6 +29,26 @@ public class OneboxLink implements Parcelable, Serializable {
         return onebox;
     }
 
+    static public OneboxLink parse(JsonReader reader) throws IOException, JSONException {
+        OneboxLink onebox = new OneboxLink();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("title")) {
+                onebox.mTitle = JsonReaderUtil.nextStringOrNull(reader);
+            } else if (name.equals("url")) {
+                onebox.mUrl = JsonReaderUtil.nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (onebox.mTitle == null || onebox.mUrl == null) {
+            throw new JSONException("Onebox missing title or url");
+        }
+        return onebox;
+    }
+
     public String getTitle() {
         return mTitle;
     }
@@ -40,8 +62,7 @@ public class OneboxLink implements Parcelable, Serializable {
         if (o == this) return true;
         if (((Object)this).getClass() != o.getClass()) return false;
         OneboxLink other = (OneboxLink)o;
-        return (super.equals(o) &&
-                mTitle.equals(other.mTitle) &&
+        return (mTitle.equals(other.mTitle) &&
                 mUrl.equals(other.mUrl)
         );
     }
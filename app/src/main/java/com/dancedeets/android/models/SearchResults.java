@@ -0,0 +1,80 @@
+package com.dancedeets.android.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fully-parsed contents of a /api/search response.
+ */
+public class SearchResults {
+
+    protected List<FullEvent> mEventList;
+    protected List<OneboxLink> mOneboxList;
+    protected List<String> mErrors;
+    // Where the next page of results starts, or null if this was the last page.
+    protected String mNextCursor;
+    // The HTTP validators the server sent with these results, for revalidating them later.
+    protected String mETag;
+    protected String mLastModified;
+
+    public SearchResults(List<FullEvent> eventList, List<OneboxLink> oneboxList, List<String> errors, String nextCursor) {
+        mEventList = eventList;
+        mOneboxList = oneboxList;
+        mErrors = errors;
+        mNextCursor = nextCursor;
+    }
+
+    public SearchResults(List<FullEvent> eventList, List<OneboxLink> oneboxList, List<String> errors) {
+        this(eventList, oneboxList, errors, null);
+    }
+
+    public SearchResults(List<FullEvent> eventList, List<OneboxLink> oneboxList) {
+        this(eventList, oneboxList, new ArrayList<String>());
+    }
+
+    public List<FullEvent> getEventList() {
+        return mEventList;
+    }
+
+    public List<OneboxLink> getOneboxList() {
+        return mOneboxList;
+    }
+
+    public List<String> getErrors() {
+        return mErrors;
+    }
+
+    public String getNextCursor() {
+        return mNextCursor;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public void setValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    public boolean hasErrors() {
+        return !mErrors.isEmpty();
+    }
+
+    /**
+     * Whether other would show the same page as this: the same events and oneboxes, continuing from the same cursor.
+     * This isn't equals(), since it ignores the errors and validators the two were fetched with.
+     */
+    public boolean hasSameResults(SearchResults other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        return (mEventList.equals(other.mEventList) &&
+                mOneboxList.equals(other.mOneboxList) &&
+                (mNextCursor == null ? other.mNextCursor == null : mNextCursor.equals(other.mNextCursor))
+        );
+    }
+}
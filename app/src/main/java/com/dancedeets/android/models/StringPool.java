@@ -0,0 +1,42 @@
+package com.dancedeets.android.models;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * An app-wide pool for the strings that repeat across events:
+ * venue cities, states and countries, category names, and admins.
+ *
+ * The parsers run their values through intern(), so a big result list for one city
+ * shares a single copy of "New York" instead of holding one per event.
+ * Values are only weakly held, so the pool never keeps a string alive once no event uses it.
+ */
+public class StringPool {
+
+    private static final WeakHashMap<String, WeakReference<String>> sPool = new WeakHashMap<>();
+
+    /**
+     * Returns the pooled copy equal to value (adding value if there is none), or null for null.
+     * Safe to call from any thread, since we parse on Volley's network threads.
+     */
+    public static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        synchronized (sPool) {
+            WeakReference<String> ref = sPool.get(value);
+            String pooled = ref != null ? ref.get() : null;
+            if (pooled == null) {
+                sPool.put(value, new WeakReference<>(value));
+                pooled = value;
+            }
+            return pooled;
+        }
+    }
+
+    static int size() {
+        synchronized (sPool) {
+            return sPool.size();
+        }
+    }
+}
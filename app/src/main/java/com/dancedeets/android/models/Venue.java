@@ -3,10 +3,12 @@ package com.dancedeets.android.models;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -59,23 +61,79 @@ public class Venue implements Parcelable, Serializable {
         // "name": "KAI studio",
         // "id": "158623004183893"},
 
-        venue.mId = jsonObject.optString("id", null);
-        venue.mName = jsonObject.optString("name", null);
+        venue.mId = StringPool.intern(jsonObject.optString("id", null));
+        venue.mName = StringPool.intern(jsonObject.optString("name", null));
         if (!jsonObject.isNull("geocode")) {
             JSONObject geocode = jsonObject.getJSONObject("geocode");
             venue.mLatLong = new LatLong(geocode.getDouble("latitude"), geocode.getDouble("longitude"));
         }
         if (!jsonObject.isNull("address")) {
             JSONObject address = jsonObject.getJSONObject("address");
-            venue.mStreet = address.optString("street", null);
-            venue.mCity = address.optString("city", null);
-            venue.mState = address.optString("state", null);
-            venue.mZip = address.optString("zip", null);
-            venue.mCountry = address.optString("country", null);
+            venue.mStreet = StringPool.intern(address.optString("street", null));
+            venue.mCity = StringPool.intern(address.optString("city", null));
+            venue.mState = StringPool.intern(address.optString("state", null));
+            venue.mZip = StringPool.intern(address.optString("zip", null));
+            venue.mCountry = StringPool.intern(address.optString("country", null));
         }
         return venue;
     }
 
+    static public Venue parse(JsonReader reader) throws IOException {
+        Venue venue = new Venue();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                venue.mId = JsonReaderUtil.nextInternedStringOrNull(reader);
+            } else if (name.equals("name")) {
+                venue.mName = JsonReaderUtil.nextInternedStringOrNull(reader);
+            } else if (name.equals("geocode")) {
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    double latitude = 0;
+                    double longitude = 0;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String geocodeName = reader.nextName();
+                        if (geocodeName.equals("latitude")) {
+                            latitude = reader.nextDouble();
+                        } else if (geocodeName.equals("longitude")) {
+                            longitude = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    venue.mLatLong = new LatLong(latitude, longitude);
+                }
+            } else if (name.equals("address")) {
+                if (!JsonReaderUtil.skipNull(reader)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String addressName = reader.nextName();
+                        if (addressName.equals("street")) {
+                            venue.mStreet = JsonReaderUtil.nextInternedStringOrNull(reader);
+                        } else if (addressName.equals("city")) {
+                            venue.mCity = JsonReaderUtil.nextInternedStringOrNull(reader);
+                        } else if (addressName.equals("state")) {
+                            venue.mState = JsonReaderUtil.nextInternedStringOrNull(reader);
+                        } else if (addressName.equals("zip")) {
+                            venue.mZip = JsonReaderUtil.nextInternedStringOrNull(reader);
+                        } else if (addressName.equals("country")) {
+                            venue.mCountry = JsonReaderUtil.nextInternedStringOrNull(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return venue;
+    }
+
     public String getName() {
         return mName;
     }
@@ -0,0 +1,139 @@
+package com.dancedeets.android.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.widget.ImageView.ScaleType;
+
+import com.dancedeets.android.cache.BitmapPool;
+
+/**
+ * Decodes and downscales image bytes the same way Volley's ImageRequest does,
+ * except that it decodes into (and scales into) bitmaps from a BitmapPool where it can,
+ * instead of allocating new ones for every image.
+ */
+public class BitmapDecoder {
+
+    // Only decode one image at a time, like ImageRequest, to avoid running out of memory on big flyers.
+    private static final Object sDecodeLock = new Object();
+
+    public static Bitmap decode(byte[] data, int maxWidth, int maxHeight, ScaleType scaleType, Bitmap.Config config, BitmapPool pool) {
+        synchronized (sDecodeLock) {
+            BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+            decodeOptions.inPreferredConfig = config;
+            decodeOptions.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            int actualWidth = decodeOptions.outWidth;
+            int actualHeight = decodeOptions.outHeight;
+            if (actualWidth <= 0 || actualHeight <= 0) {
+                return null;
+            }
+
+            int desiredWidth = getResizedDimension(maxWidth, maxHeight, actualWidth, actualHeight, scaleType);
+            int desiredHeight = getResizedDimension(maxHeight, maxWidth, actualHeight, actualWidth, scaleType);
+            int sampleSize = findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
+
+            decodeOptions.inJustDecodeBounds = false;
+            decodeOptions.inSampleSize = sampleSize;
+            decodeOptions.inMutable = true;
+            Bitmap decoded = decodeWithPool(data, decodeOptions,
+                    (actualWidth + sampleSize - 1) / sampleSize, (actualHeight + sampleSize - 1) / sampleSize, pool);
+            if (decoded == null) {
+                return null;
+            }
+            if (decoded.getWidth() <= desiredWidth && decoded.getHeight() <= desiredHeight) {
+                return decoded;
+            }
+
+            // Sampling only shrinks by powers of two, so scale the rest of the way ourselves.
+            Bitmap scaled = pool != null ? pool.get(desiredWidth, desiredHeight, config) : null;
+            if (scaled == null) {
+                scaled = Bitmap.createBitmap(desiredWidth, desiredHeight, config);
+            } else {
+                scaled.eraseColor(Color.TRANSPARENT);
+            }
+            Canvas canvas = new Canvas(scaled);
+            canvas.drawBitmap(decoded, null, new Rect(0, 0, desiredWidth, desiredHeight), new Paint(Paint.FILTER_BITMAP_FLAG));
+            if (pool != null) {
+                pool.put(decoded);
+            }
+            return scaled;
+        }
+    }
+
+    private static Bitmap decodeWithPool(byte[] data, BitmapFactory.Options decodeOptions, int width, int height, BitmapPool pool) {
+        // Before KitKat, inBitmap can't be combined with inSampleSize.
+        boolean canReuse = pool != null && (decodeOptions.inSampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT);
+        if (canReuse) {
+            decodeOptions.inBitmap = pool.get(width, height, decodeOptions.inPreferredConfig);
+        }
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+        } catch (IllegalArgumentException e) {
+            // The decoder rejected our inBitmap (ie, it decoded to a different size than we predicted)
+            if (decodeOptions.inBitmap == null) {
+                throw e;
+            }
+            pool.put(decodeOptions.inBitmap);
+            decodeOptions.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+        }
+    }
+
+    // Copied from Volley's ImageRequest, where they are private.
+    private static int getResizedDimension(int maxPrimary, int maxSecondary, int actualPrimary, int actualSecondary, ScaleType scaleType) {
+        // If no dominant value at all, just return the actual.
+        if ((maxPrimary == 0) && (maxSecondary == 0)) {
+            return actualPrimary;
+        }
+
+        // If ScaleType.FIT_XY fill the whole rectangle, ignore ratio.
+        if (scaleType == ScaleType.FIT_XY) {
+            if (maxPrimary == 0) {
+                return actualPrimary;
+            }
+            return maxPrimary;
+        }
+
+        // If primary is unspecified, scale primary to match secondary's scaling ratio.
+        if (maxPrimary == 0) {
+            double ratio = (double) maxSecondary / (double) actualSecondary;
+            return (int) (actualPrimary * ratio);
+        }
+
+        if (maxSecondary == 0) {
+            return maxPrimary;
+        }
+
+        double ratio = (double) actualSecondary / (double) actualPrimary;
+        int resized = maxPrimary;
+
+        // If ScaleType.CENTER_CROP fill the whole rectangle, preserve aspect ratio.
+        if (scaleType == ScaleType.CENTER_CROP) {
+            if ((resized * ratio) < maxSecondary) {
+                resized = (int) (maxSecondary / ratio);
+            }
+            return resized;
+        }
+
+        if ((resized * ratio) > maxSecondary) {
+            resized = (int) (maxSecondary / ratio);
+        }
+        return resized;
+    }
+
+    private static int findBestSampleSize(int actualWidth, int actualHeight, int desiredWidth, int desiredHeight) {
+        double wr = (double) actualWidth / desiredWidth;
+        double hr = (double) actualHeight / desiredHeight;
+        double ratio = Math.min(wr, hr);
+        float n = 1.0f;
+        while ((n * 2) <= ratio) {
+            n *= 2;
+        }
+        return (int) n;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dancedeets.android.util;
+
+import android.util.Log;
+
+import com.android.volley.NetworkResponse;
+import com.crashlytics.android.Crashlytics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helpers for revalidating our cached API responses with If-None-Match / If-Modified-Since,
+ * and the per-endpoint counts of how often the server answered with a 304.
+ *
+ * SearchRequest and EventRequest turn off Volley's own cache with setShouldCache(false),
+ * since we keep parsed results in SearchCache and EventRepository.
+ * So Volley never adds these headers for us, and hands us a 304 with no data.
+ */
+public class ConditionalRequests {
+
+    private static final String LOG_TAG = "ConditionalRequests";
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static class EndpointStats {
+        int mRequests;
+        int mNotModified;
+        long mFullBytes;
+        int mFullResponses;
+        long mSavedBytes;
+    }
+
+    // Updated from Volley's network threads
+    private static final Map<String, EndpointStats> sStats = new HashMap<>();
+
+    public static void addValidatorHeaders(Map<String, String> headers, String eTag, String lastModified) {
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Volley gives us the response headers in a case-insensitive map, so these work whatever case the server used.
+     */
+    public static String getETag(NetworkResponse response) {
+        return response.headers == null ? null : response.headers.get(HEADER_ETAG);
+    }
+
+    public static String getLastModified(NetworkResponse response) {
+        return response.headers == null ? null : response.headers.get(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * Counts the response against endpoint. We don't know the size of a body the server didn't send,
+     * so a 304 is credited with the average size of that endpoint's full responses.
+     */
+    public static void recordResponse(String endpoint, NetworkResponse response) {
+        synchronized (sStats) {
+            EndpointStats stats = sStats.get(endpoint);
+            if (stats == null) {
+                stats = new EndpointStats();
+                sStats.put(endpoint, stats);
+            }
+            stats.mRequests++;
+            if (response.notModified) {
+                stats.mNotModified++;
+                if (stats.mFullResponses > 0) {
+                    stats.mSavedBytes += stats.mFullBytes / stats.mFullResponses;
+                }
+                Crashlytics.log(Log.INFO, LOG_TAG, endpoint + " not modified, " + stats.mNotModified + "/" + stats.mRequests + " revalidated so far");
+            } else if (response.data != null) {
+                stats.mFullResponses++;
+                stats.mFullBytes += response.data.length;
+            }
+        }
+    }
+
+    /**
+     * The fraction of requests to endpoint that came back 304.
+     */
+    public static float getNotModifiedRate(String endpoint) {
+        synchronized (sStats) {
+            EndpointStats stats = sStats.get(endpoint);
+            if (stats == null || stats.mRequests == 0) {
+                return 0;
+            }
+            return (float) stats.mNotModified / stats.mRequests;
+        }
+    }
+
+    public static long getSavedBytes(String endpoint) {
+        synchronized (sStats) {
+            EndpointStats stats = sStats.get(endpoint);
+            return stats == null ? 0 : stats.mSavedBytes;
+        }
+    }
+
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sStats) {
+            for (Map.Entry<String, EndpointStats> entry : sStats.entrySet()) {
+                EndpointStats stats = entry.getValue();
+                sb.append(entry.getKey()).append(": ")
+                        .append(stats.mNotModified).append("/").append(stats.mRequests).append(" not modified, ")
+                        .append(stats.mSavedBytes / 1024).append("KB saved\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    static void resetStats() {
+        synchronized (sStats) {
+            sStats.clear();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.dancedeets.android.util;
+
+import android.util.JsonReader;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.dancedeets.android.models.FullEvent;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Request for /api/events/{id}, parsed on Volley's network thread like SearchRequest.
+ *
+ * If given the validators of a copy we already have, the server can answer with a 304,
+ * in which case we deliver null, and the caller keeps using its copy.
+ * Subclasses handle the delivered event in deliverResponse(), where getETag() and getLastModified()
+ * return the validators that came with it.
+ */
+public abstract class EventRequest extends Request<FullEvent> {
+
+    private static final String PROTOCOL_CHARSET = "utf-8";
+
+    // Our name for this endpoint in ConditionalRequests' stats
+    static final String ENDPOINT = "events";
+
+    private String mETag;
+    private String mLastModified;
+
+    public EventRequest(String url, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        // EventRepository is our cache. If Volley cached these too, it would revalidate with its own ETag,
+        // and we'd get a 304 (delivered as null) for an event the caller has no copy of.
+        setShouldCache(false);
+    }
+
+    public void setValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * The validators for the event we delivered. Only valid from within deliverResponse().
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        ConditionalRequests.addValidatorHeaders(headers, mETag, mLastModified);
+        return headers;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return RequestClass.INTERACTIVE.priority;
+    }
+
+    @Override
+    protected Response<FullEvent> parseNetworkResponse(NetworkResponse response) {
+        ConditionalRequests.recordResponse(ENDPOINT, response);
+        if (response.notModified) {
+            return Response.success(null, null);
+        }
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response.data),
+                    HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET)));
+            FullEvent event;
+            try {
+                event = FullEvent.parse(reader);
+            } finally {
+                reader.close();
+            }
+            // Only read back on the UI thread, after this response is delivered.
+            setValidators(ConditionalRequests.getETag(response), ConditionalRequests.getLastModified(response));
+            return Response.success(event, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+            // IllegalStateException and NumberFormatException are how JsonReader reports unexpected token types.
+            return Response.error(new ParseError(e));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.dancedeets.android.util;
+
+import java.util.TimeZone;
+
+/**
+ * A thread-safe parser for the ISO-8601 timestamps our server sends:
+ * "2014-10-15", "2014-10-15T22:00:00", and "2014-10-15T22:00:00-0400".
+ * Seconds, fractional seconds, and offsets in the forms Z, +hh, +hhmm and +hh:mm are optional.
+ *
+ * Unlike a SimpleDateFormat cascade, this walks the string once, and never throws or allocates
+ * (other than fetching the default TimeZone, for timestamps without an offset).
+ * Timestamps without an offset are interpreted in the device's time zone, just as SimpleDateFormat did.
+ */
+public class IsoDateParser {
+
+    /**
+     * Returned by parse() for strings it can't understand.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    /**
+     * Returns the timestamp in milliseconds since the epoch, or INVALID.
+     */
+    public static long parse(CharSequence s) {
+        int length = s.length();
+        if (length < 10 || s.charAt(4) != '-' || s.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = parseDigits(s, 0, 4);
+        int month = parseDigits(s, 5, 2);
+        int day = parseDigits(s, 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return INVALID;
+        }
+        long millis = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+        if (length == 10) {
+            return toLocalTime(millis);
+        }
+
+        if (s.charAt(10) != 'T' || length < 16 || s.charAt(13) != ':') {
+            return INVALID;
+        }
+        int hour = parseDigits(s, 11, 2);
+        int minute = parseDigits(s, 14, 2);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return INVALID;
+        }
+        millis += (hour * 60 + minute) * MILLIS_PER_MINUTE;
+        int pos = 16;
+
+        if (pos < length && s.charAt(pos) == ':') {
+            int second = parseDigits(s, pos + 1, 2);
+            // Allow 60, for leap seconds
+            if (second < 0 || second > 60) {
+                return INVALID;
+            }
+            millis += second * 1000;
+            pos += 3;
+            if (pos < length && (s.charAt(pos) == '.' || s.charAt(pos) == ',')) {
+                pos++;
+                int start = pos;
+                int fraction = 0;
+                int scale = 100;
+                while (pos < length && isDigit(s.charAt(pos))) {
+                    // Anything beyond milliseconds is dropped
+                    fraction += (s.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                    pos++;
+                }
+                if (pos == start) {
+                    return INVALID;
+                }
+                millis += fraction;
+            }
+        }
+
+        if (pos == length) {
+            return toLocalTime(millis);
+        }
+        char c = s.charAt(pos);
+        if (c == 'Z') {
+            return pos + 1 == length ? millis : INVALID;
+        }
+        if (c != '+' && c != '-') {
+            return INVALID;
+        }
+        int offsetHours = parseDigits(s, pos + 1, 2);
+        int offsetMinutes = 0;
+        pos += 3;
+        if (pos < length) {
+            if (s.charAt(pos) == ':') {
+                pos++;
+            }
+            offsetMinutes = parseDigits(s, pos, 2);
+            pos += 2;
+        }
+        if (pos != length || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+            return INVALID;
+        }
+        long offset = (offsetHours * 60 + offsetMinutes) * MILLIS_PER_MINUTE;
+        return c == '+' ? millis - offset : millis + offset;
+    }
+
+    /**
+     * Returns true for timestamps with no time component, which we treat as all-day events.
+     */
+    public static boolean isDateOnly(CharSequence s) {
+        return s.length() == 10;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns the non-negative value of count digits at offset, or -1 if they aren't all there.
+     */
+    private static int parseDigits(CharSequence s, int offset, int count) {
+        if (offset + count > s.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar.
+     * From Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms".
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year -= 1;
+        }
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Converts wall-clock millis (as if in UTC) into a real timestamp in the device's time zone.
+     */
+    private static long toLocalTime(long wallMillis) {
+        TimeZone timeZone = TimeZone.getDefault();
+        // Correct our first guess with the offset in effect at that guess, to handle DST transitions.
+        long guess = wallMillis - timeZone.getOffset(wallMillis);
+        return wallMillis - timeZone.getOffset(guess);
+    }
+}
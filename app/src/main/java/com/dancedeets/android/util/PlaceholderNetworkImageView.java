@@ -1,6 +1,8 @@
 package com.dancedeets.android.util;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.ViewGroup;
@@ -9,6 +11,7 @@ import android.widget.ImageView;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.NetworkImageView;
+import com.dancedeets.android.cache.BitmapPool;
 import com.dancedeets.android.models.CoverData;
 import com.dancedeets.android.models.CoverImage;
 
@@ -41,6 +44,9 @@ public class PlaceholderNetworkImageView extends ImageView {
     /** Current ImageContainer. (either in-flight or finished) */
     private ImageLoader.ImageContainer mImageContainer;
 
+    /** The bitmap we're displaying, which we hand back to the BitmapPool when we stop displaying it. */
+    private Bitmap mDisplayedBitmap;
+
 
     public PlaceholderNetworkImageView(Context context) {
         this(context, null);
@@ -99,16 +105,30 @@ public class PlaceholderNetworkImageView extends ImageView {
         if (mUrl != null) {
             return mUrl;
         } else if (mCoverData != null) {
-            CoverImage image = mCoverData.getSmallestCoverLargerThan(width, height);
-            if (image == null) {
-                image = mCoverData.getLargestCover();
-            }
-            return image.getSourceUrl();
+            return getCoverUrl(mCoverData, width, height);
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the URL of the smallest cover that will fill the given size.
+     * A height of 0 (ie, for wrap_content) means the height the cover will have when scaled to the width.
+     *
+     * This is public so that prefetchers can request exactly the image this view will load.
+     */
+    public static String getCoverUrl(CoverData coverData, int width, int height) {
+        CoverImage largest = coverData.getLargestCover();
+        if (height == 0 && largest.getWidth() > 0) {
+            height = (int) ((long) width * largest.getHeight() / largest.getWidth());
+        }
+        CoverImage image = coverData.getSmallestCoverLargerThan(width, height);
+        if (image == null) {
+            image = largest;
+        }
+        return image.getSourceUrl();
+    }
+
     /**
      * Sets the default image resource ID to be used for this view until the attempt to load it
      * completes.
@@ -151,7 +171,8 @@ public class PlaceholderNetworkImageView extends ImageView {
             return;
         }
 
-        String url = getUrl(width, height);
+        // Use the wrap_content-aware size, so the URL doesn't depend on whatever placeholder we happened to lay out with.
+        String url = getUrl(width, maxHeight);
         // if the URL to be loaded in this view is empty, cancel any old requests and clear the
         // currently loaded image.
         if (TextUtils.isEmpty(url)) {
@@ -203,7 +224,7 @@ public class PlaceholderNetworkImageView extends ImageView {
                         }
 
                         if (response.getBitmap() != null) {
-                            setImageBitmap(response.getBitmap());
+                            setPooledImageBitmap(response.getBitmap());
                         } else if (mDefaultImageId != 0) {
                             setImageResource(mDefaultImageId);
                         } else {
@@ -225,6 +246,35 @@ public class PlaceholderNetworkImageView extends ImageView {
         }
     }
 
+    private void setPooledImageBitmap(Bitmap bitmap) {
+        // This releases any previous bitmap
+        setImageBitmap(bitmap);
+        BitmapPool bitmapPool = VolleySingleton.getInstance().getBitmapPool();
+        bitmapPool.retainForDisplay(bitmap);
+        mDisplayedBitmap = bitmap;
+    }
+
+    private void releaseDisplayedBitmap() {
+        if (mDisplayedBitmap != null) {
+            VolleySingleton.getInstance().getBitmapPool().release(mDisplayedBitmap);
+            mDisplayedBitmap = null;
+        }
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        // setImageBitmap also goes through here.
+        // This is called from ImageView's constructor, so don't rely on any of our fields being set up yet.
+        releaseDisplayedBitmap();
+        super.setImageDrawable(drawable);
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        releaseDisplayedBitmap();
+        super.setImageResource(resId);
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
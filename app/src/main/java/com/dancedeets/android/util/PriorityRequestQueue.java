@@ -0,0 +1,170 @@
+package com.dancedeets.android.util;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HurlStack;
+import com.crashlytics.android.Crashlytics;
+
+import java.io.File;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Our shared RequestQueue, which tracks how long each RequestClass waits for a network thread.
+ *
+ * Volley already dispatches in priority order (see RequestClass),
+ * but we want to know when visible work is still stuck behind other traffic.
+ * We also count the requests that were cancelled before they ever reached the network,
+ * and estimate the bytes that saved us from the average response size of their class.
+ */
+public class PriorityRequestQueue extends RequestQueue {
+
+    private static final String LOG_TAG = "PriorityRequestQueue";
+
+    // Same as Volley.newRequestQueue
+    private static final String DEFAULT_CACHE_DIR = "volley";
+
+    // Visible work waiting longer than this is worth a log line
+    private static final long SLOW_QUEUE_DELAY_MS = 500;
+
+    // When each request was added, until a network thread picks it up
+    private final Map<Request<?>, Long> mEnqueueTimes = new WeakHashMap<>();
+
+    private final int[] mRequestCounts = new int[RequestClass.values().length];
+    private final long[] mTotalDelays = new long[RequestClass.values().length];
+    private final long[] mMaxDelays = new long[RequestClass.values().length];
+    private final long[] mResponseBytes = new long[RequestClass.values().length];
+    private int mCancelledCount;
+    private long mSavedBytes;
+
+    /**
+     * Tells us when a network thread starts on a request, which is the end of its queue delay.
+     */
+    private static class DelayTrackingNetwork implements Network {
+        private final Network mNetwork;
+        // Set right after the queue is constructed, before it is started.
+        private PriorityRequestQueue mQueue;
+
+        DelayTrackingNetwork(Network network) {
+            mNetwork = network;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            mQueue.onNetworkStart(request);
+            NetworkResponse response = mNetwork.performRequest(request);
+            if (response.data != null) {
+                mQueue.onNetworkResponse(request, response.data.length);
+            }
+            return response;
+        }
+    }
+
+    private PriorityRequestQueue(File cacheDir, DelayTrackingNetwork network) {
+        super(new DiskBasedCache(cacheDir), network);
+        network.mQueue = this;
+        addRequestFinishedListener(new RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                onFinished(request);
+            }
+        });
+    }
+
+    public static PriorityRequestQueue create(Context context) {
+        File cacheDir = new File(context.getCacheDir(), DEFAULT_CACHE_DIR);
+        // We only support ICS and up, so HurlStack is always the right choice (as in Volley.newRequestQueue).
+        DelayTrackingNetwork network = new DelayTrackingNetwork(new BasicNetwork(new HurlStack()));
+        PriorityRequestQueue queue = new PriorityRequestQueue(cacheDir, network);
+        queue.start();
+        return queue;
+    }
+
+    @Override
+    public <T> Request<T> add(Request<T> request) {
+        synchronized (mEnqueueTimes) {
+            mEnqueueTimes.put(request, SystemClock.elapsedRealtime());
+        }
+        return super.add(request);
+    }
+
+    private void onNetworkStart(Request<?> request) {
+        long now = SystemClock.elapsedRealtime();
+        RequestClass requestClass = RequestClass.forPriority(request.getPriority());
+        long delay;
+        synchronized (mEnqueueTimes) {
+            Long enqueueTime = mEnqueueTimes.remove(request);
+            if (enqueueTime == null) {
+                return;
+            }
+            delay = now - enqueueTime;
+            int index = requestClass.ordinal();
+            mRequestCounts[index]++;
+            mTotalDelays[index] += delay;
+            mMaxDelays[index] = Math.max(mMaxDelays[index], delay);
+        }
+        if (delay > SLOW_QUEUE_DELAY_MS && (requestClass == RequestClass.INTERACTIVE || requestClass == RequestClass.VISIBLE_IMAGE)) {
+            Crashlytics.log(Log.WARN, LOG_TAG, requestClass + " request waited " + delay + "ms for the network: " + request.getUrl());
+        }
+    }
+
+    private void onNetworkResponse(Request<?> request, int bytes) {
+        synchronized (mEnqueueTimes) {
+            mResponseBytes[RequestClass.forPriority(request.getPriority()).ordinal()] += bytes;
+        }
+    }
+
+    private void onFinished(Request<?> request) {
+        synchronized (mEnqueueTimes) {
+            // Anything still in mEnqueueTimes never made it to a network thread.
+            if (mEnqueueTimes.remove(request) != null && request.isCanceled()) {
+                mCancelledCount++;
+                int index = RequestClass.forPriority(request.getPriority()).ordinal();
+                if (mRequestCounts[index] > 0) {
+                    mSavedBytes += mResponseBytes[index] / mRequestCounts[index];
+                }
+            }
+        }
+    }
+
+    public int getCancelledCount() {
+        synchronized (mEnqueueTimes) {
+            return mCancelledCount;
+        }
+    }
+
+    /**
+     * An estimate of the response bytes we didn't download, thanks to cancelled requests.
+     */
+    public long getSavedBytes() {
+        synchronized (mEnqueueTimes) {
+            return mSavedBytes;
+        }
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("queue delay");
+        synchronized (mEnqueueTimes) {
+            for (RequestClass requestClass : RequestClass.values()) {
+                int index = requestClass.ordinal();
+                int count = mRequestCounts[index];
+                sb.append(" ").append(requestClass).append(" ").append(count).append(" requests");
+                if (count > 0) {
+                    sb.append(" avg ").append(mTotalDelays[index] / count).append("ms max ").append(mMaxDelays[index]).append("ms");
+                }
+                sb.append(";");
+            }
+            sb.append(" cancelled ").append(mCancelledCount).append(" requests, saving ~").append(mSavedBytes / 1024).append("KB");
+        }
+        return sb.toString();
+    }
+}
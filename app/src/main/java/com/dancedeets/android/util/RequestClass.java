@@ -0,0 +1,35 @@
+package com.dancedeets.android.util;
+
+import com.android.volley.Request;
+
+/**
+ * The classes of network traffic we send through our shared RequestQueue, from most to least urgent.
+ *
+ * Each maps onto one of Volley's priorities, so a burst of prefetches queues up behind
+ * the search results and images the user is actually waiting on.
+ */
+public enum RequestClass {
+    // Something the user asked for and is waiting on: searches, event details, translations
+    INTERACTIVE(Request.Priority.IMMEDIATE),
+    // Images for views currently on screen
+    VISIBLE_IMAGE(Request.Priority.HIGH),
+    // Things we guess the user will want soon, like covers just below the fold
+    PREFETCH(Request.Priority.NORMAL),
+    // Fire-and-forget updates to the server, that nobody is waiting on
+    BACKGROUND(Request.Priority.LOW);
+
+    public final Request.Priority priority;
+
+    RequestClass(Request.Priority priority) {
+        this.priority = priority;
+    }
+
+    public static RequestClass forPriority(Request.Priority priority) {
+        for (RequestClass requestClass : values()) {
+            if (requestClass.priority == priority) {
+                return requestClass;
+            }
+        }
+        return PREFETCH;
+    }
+}
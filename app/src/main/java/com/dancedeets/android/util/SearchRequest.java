@@ -0,0 +1,156 @@
+package com.dancedeets.android.util;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.JsonReaderUtil;
+import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.models.SearchResults;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Request for /api/search, which streams the response bytes straight into FullEvent objects.
+ *
+ * All parsing happens in parseNetworkResponse on Volley's network thread,
+ * so the UI thread only receives the finished SearchResults.
+ *
+ * If given the validators of results we already have, the server can answer with a 304,
+ * in which case we deliver null, and the caller keeps using the results it has.
+ */
+public class SearchRequest extends Request<SearchResults> {
+
+    private static final String LOG_TAG = "SearchRequest";
+
+    private static final String PROTOCOL_CHARSET = "utf-8";
+
+    // Our name for this endpoint in ConditionalRequests' stats
+    static final String ENDPOINT = "search";
+
+    private final Response.Listener<SearchResults> mListener;
+
+    private String mETag;
+    private String mLastModified;
+
+    public SearchRequest(String url, Response.Listener<SearchResults> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mListener = listener;
+    }
+
+    public void setValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        ConditionalRequests.addValidatorHeaders(headers, mETag, mLastModified);
+        return headers;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return RequestClass.INTERACTIVE.priority;
+    }
+
+    @Override
+    protected Response<SearchResults> parseNetworkResponse(NetworkResponse response) {
+        // Volley still parses responses for cancelled requests, so skip the work ourselves.
+        if (isCanceled()) {
+            return Response.error(new ParseError(response));
+        }
+        ConditionalRequests.recordResponse(ENDPOINT, response);
+        if (response.notModified) {
+            return Response.success(null, null);
+        }
+        long time = System.currentTimeMillis();
+        try {
+            SearchResults results = parse(response.data, HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
+            results.setValidators(ConditionalRequests.getETag(response), ConditionalRequests.getLastModified(response));
+            Crashlytics.log(Log.INFO, LOG_TAG, "Parsing " + results.getEventList().size() + " results took " + (System.currentTimeMillis() - time) + "ms");
+            return Response.success(results, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // IllegalStateException and NumberFormatException are how JsonReader reports unexpected token types.
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(SearchResults response) {
+        mListener.onResponse(response);
+    }
+
+    static SearchResults parse(byte[] data, String charset) throws IOException {
+        List<FullEvent> eventList = new ArrayList<>();
+        List<OneboxLink> oneboxList = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        String nextCursor = null;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data), charset));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("results")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        try {
+                            eventList.add(FullEvent.parse(reader));
+                        } catch (JSONException e) {
+                            Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException on event: " + e);
+                            Crashlytics.logException(e);
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.equals("onebox_links")) {
+                    // The oneboxes are optional, so we let a missing list proceed here...
+                    if (!JsonReaderUtil.skipNull(reader)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            try {
+                                oneboxList.add(OneboxLink.parse(reader));
+                            } catch (JSONException e) {
+                                Crashlytics.log(Log.ERROR, LOG_TAG, "JSONException on onebox: " + e);
+                                Crashlytics.logException(e);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                } else if (name.equals("next_cursor")) {
+                    nextCursor = JsonReaderUtil.nextStringOrNull(reader);
+                } else if (name.equals("errors")) {
+                    if (!JsonReaderUtil.skipNull(reader)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            errors.add(JsonReaderUtil.nextStringOrNull(reader));
+                        }
+                        reader.endArray();
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return new SearchResults(eventList, oneboxList, errors, nextCursor);
+    }
+}
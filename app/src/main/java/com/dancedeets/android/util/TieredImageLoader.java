@@ -0,0 +1,255 @@
+package com.dancedeets.android.util;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.ImageLoader;
+import com.android.volley.toolbox.ImageRequest;
+import com.dancedeets.android.cache.BitmapLruCache;
+import com.dancedeets.android.cache.BitmapPool;
+import com.dancedeets.android.cache.DecodedBitmapCache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An ImageLoader backed by a BitmapLruCache in memory, and a DecodedBitmapCache on disk.
+ *
+ * On a memory miss, Volley still fetches the image bytes (usually from its own disk cache),
+ * but if we have the downscaled bitmap saved, we skip decoding those bytes entirely.
+ * Either way, the new bitmap reuses memory from the BitmapPool where possible.
+ *
+ * Requests from get() are for views on screen, and go out as RequestClass.VISIBLE_IMAGE,
+ * while prefetch() requests go out at the lower RequestClass.PREFETCH.
+ * Prefetches are tagged with an owner, so cancelAll(owner) can drop them all when the owner goes away.
+ */
+public class TieredImageLoader extends ImageLoader {
+
+    private final String mName;
+    private final BitmapLruCache mMemoryCache;
+    private final DecodedBitmapCache mDiskCache;
+    private final BitmapPool mBitmapPool;
+
+    // The class and owner for the request that get() is about to make. Only touched on the UI thread, like ImageLoader itself.
+    private RequestClass mNextRequestClass = RequestClass.VISIBLE_IMAGE;
+    private Object mNextOwner;
+
+    // Outstanding prefetches for each owner. We cancel through the ImageContainers rather than RequestQueue.cancelAll,
+    // since ImageLoader needs to forget its in-flight requests too.
+    private final Map<Object, Set<ImageContainer>> mOwnedContainers = new HashMap<>();
+
+    // Updated from Volley's network threads
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mDiskMisses = new AtomicInteger();
+
+    /**
+     * @param diskCache may be null, to only cache in memory
+     * @param bitmapPool may be null, to always allocate new bitmaps
+     */
+    public TieredImageLoader(String name, RequestQueue queue, BitmapLruCache memoryCache, DecodedBitmapCache diskCache, BitmapPool bitmapPool) {
+        super(queue, memoryCache);
+        mName = name;
+        mMemoryCache = memoryCache;
+        mDiskCache = diskCache;
+        mBitmapPool = bitmapPool;
+    }
+
+    class TieredImageRequest extends ImageRequest {
+        private final String mCacheKey;
+        // ImageRequest keeps its copies of these private
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+        private final ImageView.ScaleType mScaleType;
+        private final RequestClass mRequestClass;
+
+        public TieredImageRequest(String url, Response.Listener<Bitmap> listener, int maxWidth, int maxHeight,
+                                  ImageView.ScaleType scaleType, Response.ErrorListener errorListener, String cacheKey,
+                                  RequestClass requestClass) {
+            super(url, listener, maxWidth, maxHeight, scaleType, Bitmap.Config.RGB_565, errorListener);
+            mCacheKey = cacheKey;
+            mRequestClass = requestClass;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+            mScaleType = scaleType;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mRequestClass.priority;
+        }
+
+        @Override
+        protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+            if (mDiskCache != null) {
+                Bitmap bitmap = mDiskCache.get(mCacheKey, mBitmapPool);
+                if (bitmap != null) {
+                    mDiskHits.incrementAndGet();
+                    return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+                }
+                mDiskMisses.incrementAndGet();
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapDecoder.decode(response.data, mMaxWidth, mMaxHeight, mScaleType, Bitmap.Config.RGB_565, mBitmapPool);
+            } catch (OutOfMemoryError e) {
+                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
+                return Response.error(new ParseError(e));
+            }
+            if (bitmap == null) {
+                return Response.error(new ParseError(response));
+            }
+            // Full-size images gain nothing from being stored decoded.
+            if (mDiskCache != null && (mMaxWidth != 0 || mMaxHeight != 0)) {
+                mDiskCache.put(mCacheKey, bitmap);
+            }
+            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+        }
+    }
+
+    @Override
+    protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
+                                               ImageView.ScaleType scaleType, final String cacheKey) {
+        Request<Bitmap> request = new TieredImageRequest(requestUrl, new Response.Listener<Bitmap>() {
+            @Override
+            public void onResponse(Bitmap response) {
+                onGetImageSuccess(cacheKey, response);
+            }
+        }, maxWidth, maxHeight, scaleType, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                onGetImageError(cacheKey, error);
+            }
+        }, cacheKey, mNextRequestClass);
+        if (mNextOwner != null) {
+            request.setTag(mNextOwner);
+        }
+        return request;
+    }
+
+    /**
+     * Like prefetch(), but remembers the request under owner, for cancelAll(owner).
+     */
+    public ImageContainer prefetch(String requestUrl, ImageListener listener, int maxWidth, int maxHeight, Object owner) {
+        if (owner == null) {
+            return prefetch(requestUrl, listener, maxWidth, maxHeight);
+        }
+        mNextOwner = owner;
+        try {
+            OwnedPrefetchListener ownedListener = new OwnedPrefetchListener(owner, listener);
+            ImageContainer container = prefetch(requestUrl, ownedListener, maxWidth, maxHeight);
+            if (container.getBitmap() == null) {
+                ownedListener.mContainer = container;
+                Set<ImageContainer> ownedContainers = mOwnedContainers.get(owner);
+                if (ownedContainers == null) {
+                    ownedContainers = new HashSet<>();
+                    mOwnedContainers.put(owner, ownedContainers);
+                }
+                ownedContainers.add(container);
+            }
+            return container;
+        } finally {
+            mNextOwner = null;
+        }
+    }
+
+    /**
+     * Forgets an owned prefetch once it finishes either way, so mOwnedContainers only holds those still in flight.
+     */
+    private class OwnedPrefetchListener implements ImageListener {
+        private final Object mOwner;
+        private final ImageListener mListener;
+        // Set once prefetch() returns, which is always before any error is delivered.
+        ImageContainer mContainer;
+
+        OwnedPrefetchListener(Object owner, ImageListener listener) {
+            mOwner = owner;
+            mListener = listener;
+        }
+
+        @Override
+        public void onResponse(ImageContainer response, boolean isImmediate) {
+            if (response.getBitmap() != null) {
+                forgetContainer(mOwner, response);
+            }
+            mListener.onResponse(response, isImmediate);
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            forgetContainer(mOwner, mContainer);
+            mListener.onErrorResponse(error);
+        }
+    }
+
+    private void forgetContainer(Object owner, ImageContainer container) {
+        Set<ImageContainer> ownedContainers = mOwnedContainers.get(owner);
+        if (ownedContainers == null) {
+            return;
+        }
+        ownedContainers.remove(container);
+        if (ownedContainers.isEmpty()) {
+            mOwnedContainers.remove(owner);
+        }
+    }
+
+    /**
+     * Cancels one prefetch made with prefetch(..., owner), so we forget it as well.
+     */
+    public void cancelPrefetch(ImageContainer container, Object owner) {
+        container.cancelRequest();
+        forgetContainer(owner, container);
+    }
+
+    /**
+     * Like get(), but for an image that isn't on screen yet, so it waits behind any visible images.
+     * If a view asks for the same image while this is in flight, it shares this lower-priority request.
+     */
+    public ImageContainer prefetch(String requestUrl, ImageListener listener, int maxWidth, int maxHeight) {
+        return prefetch(requestUrl, listener, maxWidth, maxHeight, ImageView.ScaleType.CENTER_INSIDE);
+    }
+
+    /**
+     * Like prefetch(), for an image that will be shown with scaleType, which is part of the cache key.
+     */
+    public ImageContainer prefetch(String requestUrl, ImageListener listener, int maxWidth, int maxHeight, ImageView.ScaleType scaleType) {
+        mNextRequestClass = RequestClass.PREFETCH;
+        try {
+            return get(requestUrl, listener, maxWidth, maxHeight, scaleType);
+        } finally {
+            mNextRequestClass = RequestClass.VISIBLE_IMAGE;
+        }
+    }
+
+    /**
+     * Cancels every outstanding prefetch made for owner.
+     */
+    public void cancelAll(Object owner) {
+        Set<ImageContainer> ownedContainers = mOwnedContainers.remove(owner);
+        if (ownedContainers == null) {
+            return;
+        }
+        for (ImageContainer container : ownedContainers) {
+            container.cancelRequest();
+        }
+    }
+
+    public void trimMemory(int level) {
+        mMemoryCache.trimMemory(level);
+    }
+
+    public String getStats() {
+        int diskHits = mDiskHits.get();
+        return mName + ": " + mMemoryCache.getStats() + ", disk " + diskHits + "/" + (diskHits + mDiskMisses.get()) + " hits";
+    }
+}
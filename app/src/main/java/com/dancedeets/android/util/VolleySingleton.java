@@ -1,59 +1,56 @@
 package com.dancedeets.android.util;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
 
 import com.android.volley.RequestQueue;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.crashlytics.android.Crashlytics;
+import com.dancedeets.android.cache.BitmapLruCache;
+import com.dancedeets.android.cache.BitmapPool;
+import com.dancedeets.android.cache.DecodedBitmapCache;
 
 public class VolleySingleton {
 
+    private static final String LOG_TAG = "VolleySingleton";
+
     private static VolleySingleton instance;
     private RequestQueue requestQueue;
-    private ImageLoader thumbnailLoader;
-    private ImageLoader photoLoader;
-
-    class ImageCache implements ImageLoader.ImageCache {
-        // LRU of 100 images
-        private final LruCache<String, Bitmap> cache;
-
-        public ImageCache(int size) {
-            cache = new LruCache<String, Bitmap>(size);
-        }
-
-
-        @Override
-        public Bitmap getBitmap(String url) {
-            return cache.get(url);
-        }
-
-        @Override
-        public void putBitmap(String url, Bitmap bitmap) {
-            cache.put(url, bitmap);
-        }
-    }
+    private TieredImageLoader thumbnailLoader;
+    private TieredImageLoader photoLoader;
+    private TieredImageLoader coverLoader;
+    private BitmapPool bitmapPool;
 
     private VolleySingleton(Context context) {
-        requestQueue = Volley.newRequestQueue(context);
-
-        // Can cache many small thumbnails
-        thumbnailLoader = new ImageLoader(requestQueue, new ImageCache(100));
+        requestQueue = PriorityRequestQueue.create(context);
 
-        // But can only cache a few big photos
-        photoLoader = new ImageLoader(requestQueue, new ImageCache(3));
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        DecodedBitmapCache diskCache = new DecodedBitmapCache(context);
+        createLoaders(memoryBytes, diskCache);
     }
 
     private VolleySingleton(RequestQueue newRequestQueue) {
         requestQueue = newRequestQueue;
+        createLoaders(Runtime.getRuntime().maxMemory(), null);
+    }
 
-        // Can cache many small thumbnails
-        thumbnailLoader = new ImageLoader(requestQueue, new ImageCache(100));
+    private void createLoaders(long memoryBytes, DecodedBitmapCache diskCache) {
+        bitmapPool = new BitmapPool(memoryBytes / 16);
 
-        // But can only cache a few big photos
-        photoLoader = new ImageLoader(requestQueue, new ImageCache(3));
+        // Thumbnails are small, so this still fits a lot of them
+        thumbnailLoader = new TieredImageLoader("thumbnails", requestQueue, new BitmapLruCache((int) (memoryBytes / 16)), diskCache, bitmapPool);
+
+        // Flyers and event covers, for the event pages
+        photoLoader = new TieredImageLoader("photos", requestQueue, new BitmapLruCache((int) (memoryBytes / 16)), diskCache, bitmapPool);
+
+        // List covers get the biggest share, since we scroll through so many of them.
+        // Only this cache returns bitmaps to the pool, since PlaceholderNetworkImageView tells the pool when it's done with them.
+        coverLoader = new TieredImageLoader("covers", requestQueue, new BitmapLruCache((int) (memoryBytes / 8), bitmapPool), diskCache, bitmapPool);
     }
 
     public static VolleySingleton getInstance() {
@@ -77,6 +74,32 @@ public class VolleySingleton {
         return requestQueue;
     }
 
+    public void trimMemory(int level) {
+        Crashlytics.log(Log.INFO, LOG_TAG, "trimMemory(" + level + "): " + getStats());
+        thumbnailLoader.trimMemory(level);
+        photoLoader.trimMemory(level);
+        coverLoader.trimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            bitmapPool.clear();
+        }
+    }
+
+    public String getStats() {
+        String stats = thumbnailLoader.getStats() + "; " + photoLoader.getStats() + "; " + coverLoader.getStats() + "; " + bitmapPool.getStats();
+        if (requestQueue instanceof PriorityRequestQueue) {
+            stats += "; " + ((PriorityRequestQueue) requestQueue).getStats();
+        }
+        return stats;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public TieredImageLoader getCoverLoader() {
+        return coverLoader;
+    }
+
     public ImageLoader getThumbnailLoader() {
         return thumbnailLoader;
     }
@@ -95,11 +118,15 @@ public class VolleySingleton {
         }
     };
 
-    public void prefetchThumbnail(String url) {
-        thumbnailLoader.get(url, mDummyListener);
+    public void prefetchPhoto(String url) {
+        photoLoader.prefetch(url, mDummyListener, 0, 0);
     }
 
-    public void prefetchPhoto(String url) {
-        photoLoader.get(url, mDummyListener);
+    /**
+     * Prefetches a photo decoded for a view of the given size and scaleType,
+     * so both the bytes and the decoded bitmap are on disk before the view asks for it.
+     */
+    public void prefetchPhoto(String url, int maxWidth, int maxHeight, ImageView.ScaleType scaleType) {
+        photoLoader.prefetch(url, mDummyListener, maxWidth, maxHeight, scaleType);
     }
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.dancedeets.android.eventlist;
+
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.dancedeets.android.R;
+import com.dancedeets.android.eventlist.adapter.EventListItem;
+import com.dancedeets.android.eventlist.adapter.HeaderListItem;
+import com.dancedeets.android.eventlist.adapter.ListItem;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.OneboxLink;
+import com.dancedeets.android.robotests.Benchmarks;
+import com.dancedeets.android.robotests.EventFixtures;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+import com.dancedeets.android.util.VolleySingleton;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the precomputed row strings, and that appended pages match a full rebuild.
+ * The simulated fling benchmark is run by hand.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventListAdapterTest {
+
+    private static final int EVENT_COUNT = 300;
+    // Roughly how many new rows scroll into view per frame in a fast fling
+    private static final int ROWS_PER_FRAME = 3;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        VolleySingleton.createInstance(Robolectric.application);
+    }
+
+    // This mirrors what EventListItem.bindView used to compute on every bind.
+    private void bindTextTheOldWay(FullEvent event, TextView location, TextView startTime, TextView categories) {
+        if (event.getVenue().hasName()) {
+            location.setText(event.getVenue().getName() + ", " + event.getVenue().getCityStateCountry());
+        } else {
+            location.setText("");
+        }
+        startTime.setText(event.getStartTimeString());
+        categories.setText("(" + event.getCategoriesAsString() + ")");
+    }
+
+    @Test
+    public void testRowStrings() throws IOException, JSONException {
+        FullEvent event = EventFixtures.readEvent("fullevent_start_and_end_time");
+        EventListAdapter adapter = new EventListAdapter(Robolectric.application);
+        adapter.rebuildList(Collections.singletonList(event), Collections.<OneboxLink>emptyList());
+
+        // Row 0 is the day header
+        View view = adapter.getView(1, null, new FrameLayout(Robolectric.application));
+        TextView startTime = (TextView) view.findViewById(R.id.event_list_start_time);
+        assertEquals(event.getStartTimeString(Locale.US), startTime.getText().toString());
+    }
+
+    // Checks the rows are a header for each day, then that day's events, in order.
+    private void assertRows(EventListAdapter adapter, List<FullEvent> eventList) {
+        int days = (eventList.size() + EventFixtures.EVENTS_PER_DAY - 1) / EventFixtures.EVENTS_PER_DAY;
+        assertEquals(eventList.size() + days, adapter.getCount());
+        int position = 0;
+        for (int i = 0; i < eventList.size(); i++) {
+            if (i % EventFixtures.EVENTS_PER_DAY == 0) {
+                assertTrue("Expected a header at " + position, adapter.getItem(position) instanceof HeaderListItem);
+                position++;
+            }
+            ListItem row = adapter.getItem(position);
+            assertTrue("Expected an event at " + position, row instanceof EventListItem);
+            assertEquals(eventList.get(i).getId(), ((EventListItem) row).getEvent().getId());
+            position++;
+        }
+    }
+
+    @Test
+    public void testAppendEvents() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildDistinctEventList(12);
+        EventListAdapter fullAdapter = new EventListAdapter(Robolectric.application);
+        fullAdapter.rebuildList(eventList, Collections.<OneboxLink>emptyList());
+        assertRows(fullAdapter, eventList);
+
+        // Appending a page at a time should give the same rows (and day headers) as building them all at once,
+        // whether a page starts partway through a day (5) or on a new day (9).
+        EventListAdapter adapter = new EventListAdapter(Robolectric.application);
+        adapter.rebuildList(eventList.subList(0, 5), Collections.<OneboxLink>emptyList());
+        adapter.appendEvents(eventList.subList(5, 9));
+        adapter.appendEvents(eventList.subList(9, 12));
+        assertRows(adapter, eventList);
+        for (int i = 0; i < adapter.getCount(); i++) {
+            assertEquals(fullAdapter.getItemId(i), adapter.getItemId(i));
+        }
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void testBindBenchmark() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildEventList(EVENT_COUNT);
+        EventListAdapter adapter = new EventListAdapter(Robolectric.application);
+        adapter.rebuildList(eventList, Collections.<OneboxLink>emptyList());
+        FrameLayout parent = new FrameLayout(Robolectric.application);
+
+        // One recycled view per type, as the ListView would hand back during a fling
+        View[] convertViews = new View[adapter.getViewTypeCount()];
+        for (int i = 0; i < adapter.getCount(); i++) {
+            int type = adapter.getItemViewType(i);
+            convertViews[type] = adapter.getView(i, convertViews[type], parent);
+        }
+
+        long worstFrame = 0;
+        long time = System.nanoTime();
+        for (int i = 0; i < adapter.getCount(); i += ROWS_PER_FRAME) {
+            long frameTime = System.nanoTime();
+            for (int j = i; j < Math.min(i + ROWS_PER_FRAME, adapter.getCount()); j++) {
+                int type = adapter.getItemViewType(j);
+                convertViews[type] = adapter.getView(j, convertViews[type], parent);
+            }
+            worstFrame = Math.max(worstFrame, System.nanoTime() - frameTime);
+        }
+        int frames = (adapter.getCount() + ROWS_PER_FRAME - 1) / ROWS_PER_FRAME;
+        long averageFrame = (System.nanoTime() - time) / frames;
+
+        TextView location = new TextView(Robolectric.application);
+        TextView startTime = new TextView(Robolectric.application);
+        TextView categories = new TextView(Robolectric.application);
+        long oldWorstFrame = 0;
+        time = System.nanoTime();
+        for (int i = 0; i < eventList.size(); i += ROWS_PER_FRAME) {
+            long frameTime = System.nanoTime();
+            for (int j = i; j < Math.min(i + ROWS_PER_FRAME, eventList.size()); j++) {
+                bindTextTheOldWay(eventList.get(j), location, startTime, categories);
+            }
+            oldWorstFrame = Math.max(oldWorstFrame, System.nanoTime() - frameTime);
+        }
+        long oldAverageFrame = (System.nanoTime() - time) / ((eventList.size() + ROWS_PER_FRAME - 1) / ROWS_PER_FRAME);
+
+        Benchmarks.log("Flinging through " + EVENT_COUNT + " events, " + ROWS_PER_FRAME + " rows per frame:");
+        Benchmarks.log("  Text formatted at bind time: average " + oldAverageFrame / 1000 + "us, worst " + oldWorstFrame / 1000 + "us per frame (text only)");
+        Benchmarks.log("  Precomputed rows: average " + averageFrame / 1000 + "us, worst " + worstFrame / 1000 + "us per frame (full bind)");
+    }
+}
@@ -0,0 +1,55 @@
+package com.dancedeets.android.gcm;
+
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.robotests.EventFixtures;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the added events stay sorted and de-duplicated, and survive a new store (ie, a new process).
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class AddedEventStoreTest {
+
+    private FullEvent buildEvent(String id, String name, String startTime) throws IOException, JSONException {
+        JSONObject jsonEvent = new JSONObject(EventFixtures.readEventJson("fullevent_example_json"));
+        jsonEvent.put("id", id);
+        jsonEvent.put("name", name);
+        jsonEvent.put("start_time", startTime);
+        return FullEvent.parse(jsonEvent);
+    }
+
+    @Test
+    public void testSortedAndPersisted() throws IOException, JSONException {
+        AddedEventStore store = new AddedEventStore(Robolectric.application);
+        store.clear();
+        assertTrue(store.add(buildEvent("2", "Second", "2014-10-16T22:00:00-0400")));
+        assertTrue(store.add(buildEvent("3", "Third", "2014-10-17T22:00:00-0400")));
+        assertTrue(store.add(buildEvent("1", "First", "2014-10-15T22:00:00-0400")));
+        // A repeated push for the same event
+        assertFalse(store.add(buildEvent("2", "Second", "2014-10-16T22:00:00-0400")));
+
+        List<AddedEventStore.Summary> summaries = new AddedEventStore(Robolectric.application).getSummaries();
+        assertEquals(3, summaries.size());
+        assertEquals("1", summaries.get(0).getId());
+        assertEquals("First", summaries.get(0).getTitle());
+        assertEquals("2", summaries.get(1).getId());
+        assertEquals("3", summaries.get(2).getId());
+        assertEquals(buildEvent("3", "Third", "2014-10-17T22:00:00-0400").getStartTimeLong(), summaries.get(2).getStartTimeLong());
+
+        store.clear();
+        assertTrue(new AddedEventStore(Robolectric.application).getSummaries().isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+package com.dancedeets.android.geo;
+
+import android.location.Location;
+
+import com.dancedeets.android.robotests.MockGoogleApiClient;
+import com.dancedeets.android.robotests.MockLocationProviderApi;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that listeners share one location fetch, and that cancelled listeners hear nothing.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class LocationProviderTest {
+
+    private static class RecordingListener implements LocationProvider.LocationListener {
+        final List<Location> mLocations = new ArrayList<>();
+
+        @Override
+        public void onLocationFound(Location location) {
+            mLocations.add(location);
+        }
+    }
+
+    private static class CountingLocationProviderApi extends MockLocationProviderApi {
+        int mFetchCount;
+
+        CountingLocationProviderApi(Location mockLocation) {
+            super(mockLocation);
+        }
+
+        @Override
+        public Location getLastLocation(GoogleApiClient googleApiClient) {
+            mFetchCount++;
+            return super.getLastLocation(googleApiClient);
+        }
+    }
+
+    private LocationProvider createProvider(CountingLocationProviderApi locationProviderApi) {
+        LocationProvider provider = new LocationProvider(Robolectric.application);
+        provider.mGoogleApiClient = new MockGoogleApiClient(provider);
+        provider.mLocationProviderApi = locationProviderApi;
+        return provider;
+    }
+
+    @Test
+    public void testSharedFetch() {
+        Location location = new Location("flp");
+        location.setLatitude(37.377166);
+        location.setLongitude(-122.086966);
+        location.setAccuracy(3.0f);
+        CountingLocationProviderApi locationProviderApi = new CountingLocationProviderApi(location);
+        LocationProvider provider = createProvider(locationProviderApi);
+
+        // ie, SearchListActivity's FetchAddress and its own ad request, then EventInfoActivity
+        RecordingListener addressListener = new RecordingListener();
+        RecordingListener adListener = new RecordingListener();
+        RecordingListener cancelledListener = new RecordingListener();
+        provider.requestLocation(addressListener);
+        provider.requestLocation(adListener);
+        provider.requestLocation(cancelledListener);
+        provider.cancelRequest(cancelledListener);
+        Robolectric.runUiThreadTasks();
+
+        assertEquals(1, addressListener.mLocations.size());
+        assertSame(location, addressListener.mLocations.get(0));
+        assertEquals(1, adListener.mLocations.size());
+        assertSame(location, adListener.mLocations.get(0));
+        assertEquals(0, cancelledListener.mLocations.size());
+        assertEquals(1, locationProviderApi.mFetchCount);
+    }
+
+    @Test
+    public void testNullLocationNotCached() {
+        CountingLocationProviderApi locationProviderApi = new CountingLocationProviderApi(null);
+        LocationProvider provider = createProvider(locationProviderApi);
+
+        RecordingListener firstListener = new RecordingListener();
+        provider.requestLocation(firstListener);
+        RecordingListener secondListener = new RecordingListener();
+        provider.requestLocation(secondListener);
+        Robolectric.runUiThreadTasks();
+
+        assertEquals(1, firstListener.mLocations.size());
+        assertNull(firstListener.mLocations.get(0));
+        assertEquals(1, secondListener.mLocations.size());
+        // Location services may have come back on, so we asked again.
+        assertEquals(2, locationProviderApi.mFetchCount);
+    }
+}
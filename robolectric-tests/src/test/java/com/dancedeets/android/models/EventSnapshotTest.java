@@ -0,0 +1,172 @@
+package com.dancedeets.android.models;
+
+import android.os.Parcel;
+
+import com.dancedeets.android.robotests.Benchmarks;
+import com.dancedeets.android.robotests.EventFixtures;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trips our models through EventSnapshot,
+ * and checks it stays smaller than the Parcel format the disk caches used before.
+ * The benchmark against that format is run by hand.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventSnapshotTest {
+
+    private static final int EVENT_COUNT = 300;
+    private static final int ITERATIONS = 20;
+
+    private List<OneboxLink> buildOneboxList() throws JSONException {
+        List<OneboxLink> oneboxList = new ArrayList<>();
+        oneboxList.add(OneboxLink.parse(new JSONObject("{\"title\": \"Onebox\", \"url\": \"http://www.dancedeets.com/\"}")));
+        return oneboxList;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildEventList(EventFixtures.EVENT_FIXTURES.length);
+        List<OneboxLink> oneboxList = buildOneboxList();
+
+        EventSnapshot snapshot = EventSnapshot.read(EventSnapshot.write(1234L, eventList, oneboxList));
+
+        assertEquals(1234L, snapshot.getTimestamp());
+        assertEquals(eventList, snapshot.getEventList());
+        assertEquals(oneboxList, snapshot.getOneboxList());
+        // The fields equals() doesn't look at
+        assertEquals(eventList.get(0).getVenue().getCityStateCountry(), snapshot.getEvent(0).getVenue().getCityStateCountry());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        EventSnapshot snapshot = EventSnapshot.read(EventSnapshot.write(0, Collections.<FullEvent>emptyList(), Collections.<OneboxLink>emptyList()));
+        assertEquals(0, snapshot.getEventCount());
+        assertTrue(snapshot.getOneboxList().isEmpty());
+    }
+
+    @Test
+    public void testMetadata() throws IOException, JSONException {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("etag", "\"v1\"");
+        metadata.put("last_modified", null);
+        EventSnapshot snapshot = EventSnapshot.read(EventSnapshot.write(0, EventFixtures.buildEventList(1), buildOneboxList(), metadata));
+
+        assertEquals("\"v1\"", snapshot.getMetadata("etag"));
+        assertNull(snapshot.getMetadata("last_modified"));
+        assertEquals(buildOneboxList(), snapshot.getOneboxList());
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildEventList(EVENT_COUNT);
+        EventSnapshot snapshot = EventSnapshot.read(EventSnapshot.write(0, eventList, Collections.<OneboxLink>emptyList()));
+
+        assertEquals(EVENT_COUNT, snapshot.getEventCount());
+        assertEquals(eventList.get(EVENT_COUNT - 1), snapshot.getEvent(EVENT_COUNT - 1));
+        assertEquals(eventList.get(1), snapshot.getEvent(1));
+        try {
+            snapshot.getEvent(EVENT_COUNT);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOtherVersionIgnored() throws IOException, JSONException {
+        byte[] bytes = EventSnapshot.write(0, EventFixtures.buildEventList(1), Collections.<OneboxLink>emptyList());
+        bytes[7]++;
+        assertNull(EventSnapshot.read(bytes));
+    }
+
+    @Test
+    public void testCorruptRejected() throws JSONException {
+        try {
+            EventSnapshot.read(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSmallerThanParcel() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildEventList(EVENT_COUNT);
+        byte[] parcelBytes = ParcelableUtil.marshallList(eventList);
+        byte[] snapshotBytes = EventSnapshot.write(0, eventList, buildOneboxList());
+        assertTrue(snapshotBytes.length < parcelBytes.length);
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void testBenchmark() throws IOException, JSONException {
+        List<FullEvent> eventList = EventFixtures.buildEventList(EVENT_COUNT);
+        List<OneboxLink> oneboxList = buildOneboxList();
+
+        byte[] parcelBytes = ParcelableUtil.marshallList(eventList);
+        byte[] snapshotBytes = EventSnapshot.write(0, eventList, oneboxList);
+        // Warm up both code paths before measuring
+        ParcelableUtil.unmarshallList(parcelBytes, new ArrayList<FullEvent>(), FullEvent.CREATOR);
+        EventSnapshot.read(snapshotBytes).getEventList();
+
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ParcelableUtil.marshallList(eventList);
+        }
+        long parcelWriteTime = (System.nanoTime() - time) / ITERATIONS;
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ParcelableUtil.unmarshallList(parcelBytes, new ArrayList<FullEvent>(), FullEvent.CREATOR);
+        }
+        long parcelReadTime = (System.nanoTime() - time) / ITERATIONS;
+
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            EventSnapshot.write(0, eventList, oneboxList);
+        }
+        long snapshotWriteTime = (System.nanoTime() - time) / ITERATIONS;
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            EventSnapshot.read(snapshotBytes).getEventList();
+        }
+        long snapshotReadTime = (System.nanoTime() - time) / ITERATIONS;
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            EventSnapshot.read(snapshotBytes).getEvent(EVENT_COUNT / 2);
+        }
+        long snapshotSingleReadTime = (System.nanoTime() - time) / ITERATIONS;
+
+        Benchmarks.log("Serializing " + EVENT_COUNT + " events:");
+        Benchmarks.log("  Parcel: " + parcelBytes.length / 1024 + "KB, write " + parcelWriteTime / 1000 + "us, read " + parcelReadTime / 1000 + "us");
+        Benchmarks.log("  EventSnapshot: " + snapshotBytes.length / 1024 + "KB, write " + snapshotWriteTime / 1000 + "us, read " + snapshotReadTime / 1000 + "us, read one " + snapshotSingleReadTime / 1000 + "us");
+    }
+
+    @Test
+    public void testParcelRoundTrip() throws IOException, JSONException {
+        // The in-memory Parcel format also changed to typed lists, so make sure it still round-trips.
+        FullEvent event = EventFixtures.readEvent("fullevent_example_json");
+        Parcel parcel = Parcel.obtain();
+        event.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertEquals(event, FullEvent.CREATOR.createFromParcel(parcel));
+        parcel.recycle();
+    }
+}
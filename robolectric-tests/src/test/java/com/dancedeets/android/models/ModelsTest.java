@@ -1,9 +1,11 @@
 package com.dancedeets.android.models;
 
+import com.dancedeets.android.robotests.Benchmarks;
 import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -18,10 +20,14 @@ import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 /**
@@ -138,4 +144,78 @@ public class ModelsTest {
         FullEvent roundTripEvent = (FullEvent)oiStream.readObject();
         assertEquals(event, roundTripEvent);
     }
+
+    private JSONObject getEventWithCategories() throws JSONException {
+        // None of our fixtures have annotations, so add some categories to share
+        JSONObject jsonEvent = getJsonObjectFromResource("fullevent_example_json");
+        jsonEvent.put("annotations", new JSONObject("{\"categories\": [\"Hip-Hop\", \"Popping\"]}"));
+        return jsonEvent;
+    }
+
+    @Test
+    public void testStringsInterned() throws JSONException {
+        FullEvent event = FullEvent.parse(getEventWithCategories());
+        FullEvent otherEvent = FullEvent.parse(getEventWithCategories());
+        assertSame(event.getVenue().mCity, otherEvent.getVenue().mCity);
+        assertSame(event.getVenue().mCountry, otherEvent.getVenue().mCountry);
+        assertSame(event.getCategories().get(0), otherEvent.getCategories().get(0));
+        assertSame(event.getAdmins().get(0).mName, otherEvent.getAdmins().get(0).mName);
+    }
+
+    // The venue, category and admin strings of eventCount separate parses,
+    // as when a metro's results come back.
+    private List<String> parseRepeatedStrings(int eventCount) throws JSONException {
+        List<String> repeatedStrings = new ArrayList<>();
+        for (int i = 0; i < eventCount; i++) {
+            FullEvent event = FullEvent.parse(getEventWithCategories());
+            Venue venue = event.getVenue();
+            for (String value : new String[]{venue.mId, venue.mName, venue.mStreet, venue.mCity, venue.mState, venue.mZip, venue.mCountry}) {
+                if (value != null) {
+                    repeatedStrings.add(value);
+                }
+            }
+            repeatedStrings.addAll(event.getCategories());
+            for (NamedPerson admin : event.getAdmins()) {
+                repeatedStrings.add(admin.mId);
+                repeatedStrings.add(admin.mName);
+            }
+        }
+        return repeatedStrings;
+    }
+
+    @Test
+    public void testInterningAcrossEvents() throws JSONException {
+        int eventCount = 300;
+        List<String> repeatedStrings = parseRepeatedStrings(eventCount);
+        IdentityHashMap<String, Boolean> instances = new IdentityHashMap<>();
+        for (String value : repeatedStrings) {
+            instances.put(value, Boolean.TRUE);
+        }
+        // Every event should share one copy of each string
+        assertEquals(repeatedStrings.size() / eventCount, instances.size());
+    }
+
+    private static long stringBytes(String value) {
+        // Rough Dalvik cost of a String: object header and fields, plus the char[] and its header
+        return 24 + 16 + 2 * value.length();
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void testInterningBenchmark() throws JSONException {
+        int eventCount = 300;
+        List<String> repeatedStrings = parseRepeatedStrings(eventCount);
+        long uninternedBytes = 0;
+        long internedBytes = 0;
+        IdentityHashMap<String, Boolean> instances = new IdentityHashMap<>();
+        for (String value : repeatedStrings) {
+            uninternedBytes += stringBytes(value);
+            if (instances.put(value, Boolean.TRUE) == null) {
+                internedBytes += stringBytes(value);
+            }
+        }
+        Benchmarks.log("Venue, category and admin strings for " + eventCount + " events:");
+        Benchmarks.log("  " + repeatedStrings.size() + " strings, " + instances.size() + " instances retained");
+        Benchmarks.log("  Without interning: " + uninternedBytes / 1024 + "KB, with interning: " + internedBytes / 1024 + "KB");
+    }
 }
@@ -0,0 +1,51 @@
+package com.dancedeets.android.robotests;
+
+import android.util.Log;
+
+import org.robolectric.shadows.ShadowLog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Shared by the benchmark tests, which are @Ignore'd since they measure rather than verify anything.
+ * Run them by hand, ie from the IDE, to compare an optimization against what it replaced.
+ */
+public class Benchmarks {
+
+    private static final String LOG_TAG = "Benchmark";
+
+    public static void log(String message) {
+        // Robolectric keeps log output to itself unless it's given a stream.
+        if (ShadowLog.stream == null) {
+            ShadowLog.stream = System.out;
+        }
+        Log.i(LOG_TAG, message);
+    }
+
+    /**
+     * How many bytes this thread has allocated so far, or -1 if the JVM can't tell us.
+     */
+    public static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        // HotSpot adds getThreadAllocatedBytes in its own ThreadMXBean subinterface.
+        // We look it up by name, so the tests neither link against it nor fail on other JVMs.
+        for (Class<?> beanClass = bean.getClass(); beanClass != null; beanClass = beanClass.getSuperclass()) {
+            for (Class<?> beanInterface : beanClass.getInterfaces()) {
+                try {
+                    Method method = beanInterface.getMethod("getThreadAllocatedBytes", long.class);
+                    return (Long) method.invoke(bean, Thread.currentThread().getId());
+                } catch (NoSuchMethodException e) {
+                    // Try the next interface
+                } catch (IllegalAccessException e) {
+                    return -1;
+                } catch (InvocationTargetException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
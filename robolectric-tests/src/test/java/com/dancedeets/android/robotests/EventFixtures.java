@@ -0,0 +1,115 @@
+package com.dancedeets.android.robotests;
+
+import com.dancedeets.android.models.FullEvent;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The v1.2 event fixtures under models/, and search responses and event lists built out of them.
+ *
+ * The local_volley/feed fixture predates the v1.2 event format (and has no venues),
+ * so any test that wants a feed-sized list builds it here instead.
+ */
+public class EventFixtures {
+
+    private static final String FIXTURE_DIR = "/com/dancedeets/android/models/";
+
+    // For buildDistinctEventList
+    public static final int EVENTS_PER_DAY = 3;
+
+    public static final String[] EVENT_FIXTURES = {
+            "fullevent_example_json",
+            "fullevent_start_and_end_time",
+            "fullevent_no_end_time",
+            "fullevent_allday",
+    };
+
+    public static byte[] readResource(String path) throws IOException {
+        InputStream inputStream = EventFixtures.class.getResourceAsStream(path);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try {
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, n);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @param fixture one of EVENT_FIXTURES
+     */
+    public static String readEventJson(String fixture) throws IOException {
+        return new String(readResource(FIXTURE_DIR + fixture), "UTF-8");
+    }
+
+    public static FullEvent readEvent(String fixture) throws IOException, JSONException {
+        return FullEvent.parse(new JSONObject(readEventJson(fixture)));
+    }
+
+    /**
+     * The fixtures repeated out to eventCount, sharing their objects, ie for size and speed comparisons.
+     */
+    public static List<FullEvent> buildEventList(int eventCount) throws IOException, JSONException {
+        List<FullEvent> fixtures = new ArrayList<>();
+        for (String fixture : EVENT_FIXTURES) {
+            fixtures.add(readEvent(fixture));
+        }
+        List<FullEvent> eventList = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            eventList.add(fixtures.get(i % fixtures.size()));
+        }
+        return eventList;
+    }
+
+    /**
+     * eventCount different events, like a real list of results: each has its own id,
+     * and they start in order, three a day, so the list crosses a day boundary every third event.
+     * Start times are in the default time zone.
+     */
+    public static List<FullEvent> buildDistinctEventList(int eventCount) throws IOException, JSONException {
+        String event = readEventJson("fullevent_no_end_time");
+        DateFormat localDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        List<FullEvent> eventList = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            Calendar startTime = new GregorianCalendar(2014, Calendar.OCTOBER, 15 + i / EVENTS_PER_DAY, 4 + 8 * (i % EVENTS_PER_DAY), 0);
+            JSONObject jsonEvent = new JSONObject(event);
+            jsonEvent.put("id", String.valueOf(1000 + i));
+            jsonEvent.put("name", "Event " + i);
+            jsonEvent.put("start_time", localDateTimeFormat.format(startTime.getTime()));
+            eventList.add(FullEvent.parse(jsonEvent));
+        }
+        return eventList;
+    }
+
+    /**
+     * A search response with eventCount copies of the example event, and one onebox.
+     */
+    public static byte[] buildSearchResponse(int eventCount) throws IOException {
+        String event = readEventJson("fullevent_example_json");
+        StringBuilder sb = new StringBuilder("{\"results\": [");
+        for (int i = 0; i < eventCount; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(event);
+        }
+        sb.append("], \"onebox_links\": [{\"title\": \"Onebox\", \"url\": \"http://www.dancedeets.com/\"}]}");
+        return sb.toString().getBytes("UTF-8");
+    }
+}
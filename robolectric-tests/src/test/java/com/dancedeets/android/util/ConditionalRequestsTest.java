@@ -0,0 +1,232 @@
+package com.dancedeets.android.util;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HurlStack;
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.SearchResults;
+import com.dancedeets.android.robotests.EventFixtures;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs SearchRequest and EventRequest against a stub HTTP server that honors If-None-Match and If-Modified-Since,
+ * to check the validators make the round trip, and that a 304 is delivered without parsing anything.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class ConditionalRequestsTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sat, 17 Oct 2026 12:00:00 GMT";
+
+    private ServerSocket mServerSocket;
+    private Thread mServerThread;
+    private byte[] mBody;
+    // Whether the stub sends an ETag, or only a Last-Modified
+    private boolean mSendETag;
+
+    private void serve(Socket socket) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            boolean notModified = false;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("If-None-Match") && value.equals(ETAG)) {
+                    notModified = true;
+                } else if (name.equalsIgnoreCase("If-Modified-Since") && value.equals(LAST_MODIFIED)) {
+                    notModified = true;
+                }
+            }
+            StringBuilder headers = new StringBuilder();
+            if (notModified) {
+                headers.append("HTTP/1.1 304 Not Modified\r\n");
+            } else {
+                headers.append("HTTP/1.1 200 OK\r\n");
+                headers.append("Content-Type: application/json; charset=utf-8\r\n");
+            }
+            if (mSendETag) {
+                headers.append("ETag: ").append(ETAG).append("\r\n");
+            }
+            headers.append("Last-Modified: ").append(LAST_MODIFIED).append("\r\n");
+            headers.append("Content-Length: ").append(notModified ? 0 : mBody.length).append("\r\n");
+            headers.append("Connection: close\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(headers.toString().getBytes("UTF-8"));
+            if (!notModified) {
+                out.write(mBody);
+            }
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        ConditionalRequests.resetStats();
+        mServerSocket = new ServerSocket(0);
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        serve(mServerSocket.accept());
+                    }
+                } catch (IOException e) {
+                    // The socket was closed in tearDown
+                }
+            }
+        });
+        mServerThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mServerThread.join();
+    }
+
+    private String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    @Test
+    public void testSearchNotModified() throws IOException, VolleyError {
+        String event = EventFixtures.readEventJson("fullevent_example_json");
+        mBody = ("{\"results\": [" + event + "]}").getBytes("UTF-8");
+        mSendETag = true;
+        Network network = new BasicNetwork(new HurlStack());
+
+        SearchRequest request = new SearchRequest(getUrl("/api/v1.2/search"), null, null);
+        NetworkResponse networkResponse = network.performRequest(request);
+        assertFalse(networkResponse.notModified);
+        SearchResults results = request.parseNetworkResponse(networkResponse).result;
+        assertEquals(1, results.getEventList().size());
+        assertEquals(ETAG, results.getETag());
+        assertEquals(LAST_MODIFIED, results.getLastModified());
+
+        SearchRequest revalidateRequest = new SearchRequest(getUrl("/api/v1.2/search"), null, null);
+        revalidateRequest.setValidators(results.getETag(), results.getLastModified());
+        networkResponse = network.performRequest(revalidateRequest);
+        assertTrue(networkResponse.notModified);
+        Response<SearchResults> response = revalidateRequest.parseNetworkResponse(networkResponse);
+        assertTrue(response.isSuccess());
+        assertNull(response.result);
+
+        assertEquals(0.5f, ConditionalRequests.getNotModifiedRate(SearchRequest.ENDPOINT), 0.001f);
+        assertEquals(mBody.length, ConditionalRequests.getSavedBytes(SearchRequest.ENDPOINT));
+        assertEquals(0, ConditionalRequests.getSavedBytes(EventRequest.ENDPOINT));
+        // What the debug stats report for the same requests
+        assertTrue(ConditionalRequests.getStats().contains(SearchRequest.ENDPOINT + ": 1/2 not modified"));
+    }
+
+    /**
+     * Goes through a RequestQueue with a disk cache, like the app's, to check Volley's cache stays out of the way.
+     * Otherwise the second request would carry Volley's own If-None-Match, and come back as a 304 nobody asked for.
+     */
+    @Test
+    public void testEventRequestSkipsVolleyCache() throws IOException, InterruptedException {
+        mBody = EventFixtures.readResource("/com/dancedeets/android/models/fullevent_example_json");
+        mSendETag = true;
+        File cacheDir = new File(Robolectric.application.getCacheDir(), "conditional_requests_test");
+        // Deliver on the network thread, since the test thread isn't a Looper.
+        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir), new BasicNetwork(new HurlStack()), 1,
+                new ExecutorDelivery(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                }));
+        queue.start();
+        try {
+            final List<FullEvent> events = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                final CountDownLatch latch = new CountDownLatch(1);
+                EventRequest request = new EventRequest(getUrl("/api/v1.2/events/1"), new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        latch.countDown();
+                    }
+                }) {
+                    @Override
+                    protected void deliverResponse(FullEvent response) {
+                        events.add(response);
+                        latch.countDown();
+                    }
+                };
+                queue.add(request);
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+            }
+            assertEquals(2, events.size());
+            assertNotNull(events.get(0));
+            assertNotNull(events.get(1));
+            assertEquals(0f, ConditionalRequests.getNotModifiedRate(EventRequest.ENDPOINT), 0.001f);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testEventLastModified() throws IOException, VolleyError {
+        mBody = EventFixtures.readResource("/com/dancedeets/android/models/fullevent_example_json");
+        mSendETag = false;
+        Network network = new BasicNetwork(new HurlStack());
+
+        EventRequest request = new EventRequest(getUrl("/api/v1.2/events/1"), null) {
+            @Override
+            protected void deliverResponse(FullEvent response) {
+            }
+        };
+        FullEvent event = request.parseNetworkResponse(network.performRequest(request)).result;
+        assertNotNull(event);
+        assertNull(request.getETag());
+        assertEquals(LAST_MODIFIED, request.getLastModified());
+
+        EventRequest revalidateRequest = new EventRequest(getUrl("/api/v1.2/events/1"), null) {
+            @Override
+            protected void deliverResponse(FullEvent response) {
+            }
+        };
+        revalidateRequest.setValidators(request.getETag(), request.getLastModified());
+        NetworkResponse networkResponse = network.performRequest(revalidateRequest);
+        assertTrue(networkResponse.notModified);
+        assertNull(revalidateRequest.parseNetworkResponse(networkResponse).result);
+        assertEquals(0.5f, ConditionalRequests.getNotModifiedRate(EventRequest.ENDPOINT), 0.001f);
+    }
+}
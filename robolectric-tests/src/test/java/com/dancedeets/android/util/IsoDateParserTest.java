@@ -0,0 +1,138 @@
+package com.dancedeets.android.util;
+
+import com.dancedeets.android.robotests.Benchmarks;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks IsoDateParser against the SimpleDateFormat cascade it replaced,
+ * with a benchmark of the two to run by hand.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class IsoDateParserTest {
+
+    private static final int ITERATIONS = 100000;
+
+    // The timestamp shapes used by our test fixtures
+    private static final String[] FIXTURE_DATES = {
+            "2014-10-15T22:00:00-0400",
+            "2014-10-16T04:00:00-0400",
+            "2014-10-15T22:00:00",
+            "2014-10-15",
+    };
+
+    private final DateFormat isoDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final DateFormat isoDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private final DateFormat isoDateTimeFormatWithTZ = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+
+    // This mirrors the old FullEvent.parseIsoDate
+    private long parseWithSimpleDateFormat(String dateString) throws ParseException {
+        try {
+            return isoDateTimeFormatWithTZ.parse(dateString).getTime();
+        } catch (ParseException e1) {
+            try {
+                return isoDateTimeFormat.parse(dateString).getTime();
+            } catch (ParseException e2) {
+                return isoDateFormat.parse(dateString).getTime();
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSimpleDateFormat() throws ParseException {
+        for (String date : FIXTURE_DATES) {
+            assertEquals(date, parseWithSimpleDateFormat(date), IsoDateParser.parse(date));
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        long expected = 1413424800000L; // 2014-10-16T02:00:00Z
+        assertEquals(expected, IsoDateParser.parse("2014-10-16T02:00:00Z"));
+        assertEquals(expected, IsoDateParser.parse("2014-10-15T22:00:00-0400"));
+        assertEquals(expected, IsoDateParser.parse("2014-10-15T22:00:00-04:00"));
+        assertEquals(expected, IsoDateParser.parse("2014-10-15T22:00:00-04"));
+        assertEquals(expected, IsoDateParser.parse("2014-10-16T11:00:00+0900"));
+        assertEquals(expected, IsoDateParser.parse("2014-10-16T02:00Z"));
+        assertEquals(expected + 123, IsoDateParser.parse("2014-10-16T02:00:00.123Z"));
+        assertEquals(expected + 123, IsoDateParser.parse("2014-10-16T02:00:00.123456Z"));
+        assertEquals(0, IsoDateParser.parse("1970-01-01T00:00:00Z"));
+        assertEquals(951782400000L, IsoDateParser.parse("2000-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void testLocalTime() {
+        TimeZone oldDefault = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+            assertEquals(1413424800000L, IsoDateParser.parse("2014-10-15T22:00:00"));
+            assertEquals(1413345600000L, IsoDateParser.parse("2014-10-15"));
+        } finally {
+            TimeZone.setDefault(oldDefault);
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalidDates = {
+                "",
+                "2014",
+                "2014-10",
+                "2014/10/15",
+                "2014-13-15",
+                "2014-10-15 22:00:00",
+                "2014-10-15T25:00:00",
+                "2014-10-15T22:00:00.",
+                "2014-10-15T22:00:00X",
+                "2014-10-15T22:00:00-04000",
+                "2014-10-15T22:00:00-4",
+        };
+        for (String date : invalidDates) {
+            assertEquals(date, IsoDateParser.INVALID, IsoDateParser.parse(date));
+        }
+    }
+
+    @Test
+    public void testIsDateOnly() {
+        assertTrue(IsoDateParser.isDateOnly("2014-10-15"));
+        assertFalse(IsoDateParser.isDateOnly("2014-10-15T22:00:00-0400"));
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void testBenchmark() throws ParseException {
+        // Warm up both code paths before measuring
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            parseWithSimpleDateFormat(FIXTURE_DATES[i % FIXTURE_DATES.length]);
+            IsoDateParser.parse(FIXTURE_DATES[i % FIXTURE_DATES.length]);
+        }
+
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseWithSimpleDateFormat(FIXTURE_DATES[i % FIXTURE_DATES.length]);
+        }
+        long simpleDateFormatTime = System.nanoTime() - time;
+
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            IsoDateParser.parse(FIXTURE_DATES[i % FIXTURE_DATES.length]);
+        }
+        long isoDateParserTime = System.nanoTime() - time;
+
+        Benchmarks.log("Parsing " + ITERATIONS + " fixture timestamps:");
+        Benchmarks.log("  SimpleDateFormat: " + simpleDateFormatTime / ITERATIONS + "ns each");
+        Benchmarks.log("  IsoDateParser: " + isoDateParserTime / ITERATIONS + "ns each");
+    }
+}
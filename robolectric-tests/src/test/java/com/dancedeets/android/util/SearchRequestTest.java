@@ -0,0 +1,162 @@
+package com.dancedeets.android.util;
+
+import android.util.JsonReader;
+
+import com.dancedeets.android.models.FullEvent;
+import com.dancedeets.android.models.SearchResults;
+import com.dancedeets.android.robotests.Benchmarks;
+import com.dancedeets.android.robotests.EventFixtures;
+import com.dancedeets.android.robotests.RobolectricGradleTestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies the streaming search parser against the JSONObject-based one,
+ * with a benchmark of the two to run by hand.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+public class SearchRequestTest {
+
+    private static final int EVENT_COUNT = 300;
+    private static final int ITERATIONS = 20;
+
+    // This mirrors the old JsonObjectRequest + SearchProcessor.onResponse path.
+    private List<FullEvent> parseWithJsonObject(byte[] data) throws IOException, JSONException {
+        JSONObject response = new JSONObject(new String(data, "UTF-8"));
+        JSONArray jsonEventList = response.getJSONArray("results");
+        List<FullEvent> eventList = new ArrayList<>();
+        for (int i = 0; i < jsonEventList.length(); i++) {
+            eventList.add(FullEvent.parse(jsonEventList.getJSONObject(i)));
+        }
+        return eventList;
+    }
+
+    @Test
+    public void testStreamingMatchesJsonObject() throws IOException, JSONException {
+        byte[] data = EventFixtures.buildSearchResponse(3);
+        SearchResults results = SearchRequest.parse(data, "UTF-8");
+        List<FullEvent> expected = parseWithJsonObject(data);
+
+        assertEquals(expected, results.getEventList());
+        assertEquals(1, results.getOneboxList().size());
+        assertEquals("Onebox", results.getOneboxList().get(0).getTitle());
+        assertTrue(results.getErrors().isEmpty());
+    }
+
+    @Test
+    public void testBadEventsSkipped() throws IOException, JSONException {
+        String event = EventFixtures.readEventJson("fullevent_example_json");
+        JSONObject badCover = new JSONObject(event);
+        badCover.put("cover", new JSONObject("{\"images\": [{\"width\": 100, \"height\": 100}]}"));
+        JSONObject badAdmin = new JSONObject(event);
+        badAdmin.put("admins", new JSONArray("[{\"id\": \"1\"}, {\"id\": \"2\", \"name\": \"Admin\"}]"));
+        String data = "{\"results\": [" + event + "," + badCover + "," + badAdmin + "," + event + "], \"next_cursor\": \"abc\"}";
+
+        // The bad events are dropped, without losing our place in the rest of the response.
+        SearchResults results = SearchRequest.parse(data.getBytes("UTF-8"), "UTF-8");
+        assertEquals(2, results.getEventList().size());
+        assertEquals(FullEvent.parse(new JSONObject(event)), results.getEventList().get(1));
+        assertEquals("abc", results.getNextCursor());
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        byte[] data = "{\"errors\": [\"Bad location\"], \"results\": []}".getBytes("UTF-8");
+        SearchResults results = SearchRequest.parse(data, "UTF-8");
+        assertTrue(results.hasErrors());
+        assertEquals("Bad location", results.getErrors().get(0));
+    }
+
+    @Test
+    public void testNextCursor() throws IOException {
+        byte[] data = "{\"results\": [], \"next_cursor\": \"abc\"}".getBytes("UTF-8");
+        assertEquals("abc", SearchRequest.parse(data, "UTF-8").getNextCursor());
+
+        data = "{\"results\": [], \"next_cursor\": null}".getBytes("UTF-8");
+        assertNull(SearchRequest.parse(data, "UTF-8").getNextCursor());
+    }
+
+    @Test
+    public void testHasSameResults() throws IOException {
+        byte[] data = EventFixtures.buildSearchResponse(3);
+        SearchResults results = SearchRequest.parse(data, "UTF-8");
+        SearchResults refreshed = SearchRequest.parse(data, "UTF-8");
+        refreshed.setValidators("\"etag\"", null);
+        assertTrue(results.hasSameResults(refreshed));
+
+        assertFalse(results.hasSameResults(SearchRequest.parse(EventFixtures.buildSearchResponse(2), "UTF-8")));
+        assertFalse(results.hasSameResults(null));
+
+        // The same page leading somewhere else still needs redelivering.
+        SearchResults lastPage = SearchRequest.parse("{\"results\": []}".getBytes("UTF-8"), "UTF-8");
+        SearchResults morePages = SearchRequest.parse("{\"results\": [], \"next_cursor\": \"abc\"}".getBytes("UTF-8"), "UTF-8");
+        assertFalse(lastPage.hasSameResults(morePages));
+    }
+
+    @Test
+    public void testRequiredFieldsMatchJsonObject() throws IOException, JSONException {
+        String event = EventFixtures.readEventJson("fullevent_example_json");
+        for (String field : new String[]{"id", "name", "description", "start_time", "picture", "venue"}) {
+            JSONObject jsonEvent = new JSONObject(event);
+            jsonEvent.remove(field);
+            try {
+                FullEvent.parse(jsonEvent);
+                fail("JSONObject parser accepted an event without " + field);
+            } catch (JSONException e) {
+                // expected
+            }
+            try {
+                FullEvent.parse(new JsonReader(new StringReader(jsonEvent.toString())));
+                fail("JsonReader parser accepted an event without " + field);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void testBenchmark() throws IOException, JSONException {
+        byte[] data = EventFixtures.buildSearchResponse(EVENT_COUNT);
+        // Warm up both code paths before measuring
+        parseWithJsonObject(data);
+        SearchRequest.parse(data, "UTF-8");
+
+        long allocated = Benchmarks.getAllocatedBytes();
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseWithJsonObject(data);
+        }
+        long treeTime = (System.nanoTime() - time) / ITERATIONS;
+        long treeAllocated = (Benchmarks.getAllocatedBytes() - allocated) / ITERATIONS;
+
+        allocated = Benchmarks.getAllocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            SearchRequest.parse(data, "UTF-8");
+        }
+        long streamTime = (System.nanoTime() - time) / ITERATIONS;
+        long streamAllocated = (Benchmarks.getAllocatedBytes() - allocated) / ITERATIONS;
+
+        Benchmarks.log("Parsing " + EVENT_COUNT + " events (" + data.length + " bytes)"
+                + (allocated < 0 ? ", allocations not available on this JVM:" : ":"));
+        Benchmarks.log("  JSONObject: " + treeTime / 1000 + "us, " + treeAllocated / 1024 + "KB allocated");
+        Benchmarks.log("  JsonReader: " + streamTime / 1000 + "us, " + streamAllocated / 1024 + "KB allocated");
+    }
+}